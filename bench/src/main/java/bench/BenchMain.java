@@ -0,0 +1,32 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ Headless entry point for the benchmark jar.
+
+ <P>Runs every benchmark in this package, or those matching the usual JMH command line, with the gc profiler
+ attached. Throughput gives ops/s, SampleTime gives the p99 latency and the profiler gives the allocation rate.
+ Run from bench/ so the ../export.jpg inputs resolve.
+ */
+public class BenchMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        System.setProperty("java.awt.headless", "true");
+
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) options.include("bench\\..*");
+        options.addProfiler(GCProfiler.class);
+        options.jvmArgsAppend("-Djava.awt.headless=true");
+
+        new Runner(options.build()).run();
+    }
+}
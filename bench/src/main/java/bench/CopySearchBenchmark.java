@@ -0,0 +1,58 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import util.PolarFrame;
+import util.SamplingPlan;
+import util.SectorMatcher;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+// Nearest-sector search behind sampleDifferences at finer sector counts, exact and bounded
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CopySearchBenchmark {
+
+    @Param({Frames.SYNTHETIC, "../export.jpg"})
+    public String image;
+
+    @Param({"360", "720", "1440"})
+    public int sectors;
+
+    // window:maxCandidates, 0 for unbounded
+    @Param({"0:0", "64:0", "32:4"})
+    public String search;
+
+    private PolarFrame frame;
+    private BitSet converted;
+    private SectorMatcher matcher;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        int leds = Frames.NUM_LEDS;
+        frame = new PolarFrame(sectors, leds);
+        SamplingPlan.Of(sectors, leds, 4, Frames.PANEL_WIDTH, Frames.PANEL_HEIGHT)
+                .sample(Frames.Render(Frames.Load(image)), frame, SamplingPlan.Filter.BOX);
+
+        // Sectors that differ from the one before, as ExpandSampling marks them
+        converted = new BitSet(sectors);
+        int[] data = frame.data();
+        for (int i = 0; i < sectors; i++) {
+            if (i == 0 || !Arrays.equals(data, i * leds, (i + 1) * leds, data, (i - 1) * leds, i * leds)) converted.set(i);
+        }
+
+        String[] limits = search.split(":");
+        matcher = new SectorMatcher(sectors, leds, Integer.parseInt(limits[0]), Integer.parseInt(limits[1]));
+    }
+
+    @Benchmark
+    public SectorMatcher match(){
+        matcher.match(frame, converted);
+        return matcher;
+    }
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import util.EncodingUtils;
+import util.PolarFrame;
+import util.RieFile;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EncodingBenchmark {
+
+    @Param({Frames.SYNTHETIC, "../export.jpg"})
+    public String image;
+
+    private PolarFrame frame, decoded;
+    private HashMap<Integer, ByteBuffer> encoded;
+
+    // Whole-frame inputs for the decoders: per-sector tables back to back, and a palette coded file
+    private ByteBuffer canonical;
+    private RieFile palette;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        frame = Frames.Sample(Frames.Load(image));
+        decoded = new PolarFrame(Frames.SECTORS, Frames.NUM_LEDS);
+        encoded = new HashMap<>();
+
+        EncodingUtils.CanonicalHuffmanEncode(frame, encoded, Frames.SECTORS);
+        canonical = ByteBuffer.allocate((int) EncodingUtils.EncodedSize(encoded));
+        for (int i = 0; i < Frames.SECTORS; i++) canonical.put(encoded.get(i));
+        canonical.flip();
+
+        encoded.clear();
+        ByteBuffer table = EncodingUtils.PaletteHuffmanEncode(frame, encoded, Frames.SECTORS);
+        palette = RieFile.Wrap(RieFile.Encode(table, encoded, Frames.SECTORS, Frames.NUM_LEDS, RieFile.PALETTE_CODING));
+    }
+
+    @Benchmark
+    public HashMap<Integer, ByteBuffer> huffmanEncode(){
+        encoded.clear();
+        EncodingUtils.HuffmanEncode(frame, encoded, Frames.SECTORS);
+        return encoded;
+    }
+
+    @Benchmark
+    public HashMap<Integer, ByteBuffer> canonicalHuffmanEncode(){
+        encoded.clear();
+        EncodingUtils.CanonicalHuffmanEncode(frame, encoded, Frames.SECTORS);
+        return encoded;
+    }
+
+    @Benchmark
+    public ByteBuffer paletteHuffmanEncode(){
+        encoded.clear();
+        return EncodingUtils.PaletteHuffmanEncode(frame, encoded, Frames.SECTORS);
+    }
+
+    @Benchmark
+    public PolarFrame canonicalHuffmanDecode(){
+        EncodingUtils.CanonicalHuffmanDecode(canonical.duplicate(), decoded, Frames.SECTORS);
+        return decoded;
+    }
+
+    @Benchmark
+    public PolarFrame paletteHuffmanDecode(){
+        palette.decode(decoded);
+        return decoded;
+    }
+}
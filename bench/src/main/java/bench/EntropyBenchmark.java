@@ -0,0 +1,77 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import util.CanonicalHuffman;
+import util.EncodingUtils;
+import util.EntropyCoder;
+import util.PlanarFrame;
+import util.PolarFrame;
+import util.RansCoder;
+import util.RieFile;
+import util.TransformationUtils;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+// Frame-wide entropy coders side by side on the full frame and its radial derivative; setup prints each file's size
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EntropyBenchmark {
+
+    @Param({Frames.SYNTHETIC, "../export.jpg"})
+    public String image;
+
+    @Param({"huffman", "rans"})
+    public String coder;
+
+    @Param({"full", "derivative"})
+    public String content;
+
+    private PolarFrame frame, decoded;
+    private HashMap<Integer, ByteBuffer> encoded;
+    private RieFile file;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        frame = Frames.Sample(Frames.Load(image));
+        if (content.equals("derivative")) {
+            PlanarFrame planes = new PlanarFrame(Frames.SECTORS, Frames.NUM_LEDS);
+            TransformationUtils.RadialDerivative(PlanarFrame.Split(frame), planes, Frames.SECTORS);
+            planes.pack(frame);
+        }
+        decoded = new PolarFrame(Frames.SECTORS, Frames.NUM_LEDS);
+        encoded = new HashMap<>();
+
+        ByteBuffer table = EncodingUtils.EntropyEncode(coder(), frame, encoded, Frames.SECTORS);
+        int coding = coder.equals("rans") ? RieFile.RANS_CODING : RieFile.PALETTE_CODING;
+        file = RieFile.Wrap(RieFile.Encode(table, encoded, Frames.SECTORS, Frames.NUM_LEDS, coding));
+
+        int raw = Frames.SECTORS * Frames.NUM_LEDS * 3;
+        long size = EncodingUtils.EncodedSize(encoded) + table.remaining();
+        System.out.println(String.format("%n%s %s: %d bytes, %d of them table, %.2fx against raw RGB",
+                coder, content, size, table.remaining(), (double) raw / size));
+    }
+
+    private EntropyCoder coder(){
+        return coder.equals("rans")
+                ? new RansCoder(Frames.NUM_LEDS)
+                : new CanonicalHuffman(Frames.NUM_LEDS, Frames.SECTORS * Frames.NUM_LEDS);
+    }
+
+    @Benchmark
+    public ByteBuffer encode(){
+        encoded.clear();
+        return EncodingUtils.EntropyEncode(coder(), frame, encoded, Frames.SECTORS);
+    }
+
+    @Benchmark
+    public PolarFrame decode(){
+        file.decode(decoded);
+        return decoded;
+    }
+}
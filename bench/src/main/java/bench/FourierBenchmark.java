@@ -0,0 +1,60 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import util.FourierUtils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// FourierUtils on single blocks: the 12-sample ring blocks, the dense/FFT crossover, whole rings and a non power of two
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FourierBenchmark {
+
+    @Param({"12", "64", "72", "256", "360", "1000"})
+    public int size;
+
+    private double[] samples, real, imag, transformed;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        Random random = new Random(size);
+        samples = new double[size];
+        for (int i = 0; i < size; i++) {
+            samples[i] = random.nextInt(256) - 128;
+        }
+
+        real = new double[size];
+        imag = new double[size];
+        transformed = new double[size];
+        FourierUtils.DFT(samples, real, imag);
+    }
+
+    @Benchmark
+    public double[] dft(){
+        FourierUtils.DFT(samples, real, imag);
+        return real;
+    }
+
+    @Benchmark
+    public double[] idft(){
+        FourierUtils.iDFT(real, imag, transformed, 0, size - 1, true);
+        return transformed;
+    }
+
+    @Benchmark
+    public double[] dct(){
+        FourierUtils.DCT(samples, real, imag);
+        return real;
+    }
+
+    @Benchmark
+    public double[] idct(){
+        FourierUtils.iDCT(real, transformed, 0, size - 1, true);
+        return transformed;
+    }
+}
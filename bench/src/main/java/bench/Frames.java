@@ -0,0 +1,78 @@
+package bench;
+
+import util.PolarFrame;
+import util.SamplingPlan;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+// Deterministic benchmark inputs; nothing here touches a display
+public class Frames {
+
+    public static final int PANEL_WIDTH = 800;
+    public static final int PANEL_HEIGHT = 800;
+
+    public static final int SECTORS = 360;
+    public static final int NUM_LEDS = 72;
+
+    public static final String SYNTHETIC = "synthetic";
+
+    private static final long SEED = 3009;
+
+    // "synthetic" or a path to an image, e.g. ../export.jpg when run from bench/
+    public static BufferedImage Load(String source){
+        if (SYNTHETIC.equals(source)) return Synthetic(PANEL_WIDTH, PANEL_HEIGHT, SEED);
+
+        try {
+            BufferedImage image = ImageIO.read(new File(source));
+            if (image == null) throw new IOException("Unreadable image " + source);
+            return image;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Concentric bands under random blocks: long runs along each ring with a few hard edges, like a real frame
+    public static BufferedImage Synthetic(int width, int height, long seed){
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g2d = image.createGraphics();
+
+        int cx = width / 2, cy = height / 2;
+        for (int r = Math.max(width, height); r > 0; r -= 10 + random.nextInt(30)) {
+            g2d.setColor(new Color(random.nextInt(0x1000000)));
+            g2d.fillOval(cx - r, cy - r, 2 * r, 2 * r);
+        }
+
+        for (int i = 0; i < 24; i++) {
+            g2d.setColor(new Color(random.nextInt(0x1000000)));
+            g2d.fillRect(random.nextInt(width), random.nextInt(height), 20 + random.nextInt(120), 20 + random.nextInt(120));
+        }
+
+        g2d.dispose();
+        return image;
+    }
+
+    // Same raster SectoredCircle samples with the guide hidden and no offset or scaling
+    public static BufferedImage Render(BufferedImage image){
+        BufferedImage frame = new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g2d = frame.createGraphics();
+        g2d.setColor(Color.BLACK);
+        g2d.fillOval(0, 0, PANEL_WIDTH, PANEL_HEIGHT);
+        g2d.setColor(Color.WHITE);
+        g2d.fillOval(390, 390, 20, 20);
+        g2d.drawImage(image, 0, 0, PANEL_WIDTH, PANEL_HEIGHT, null);
+        g2d.dispose();
+        return frame;
+    }
+
+    public static PolarFrame Sample(BufferedImage image){
+        PolarFrame frame = new PolarFrame(SECTORS, NUM_LEDS);
+        SamplingPlan.Of(SECTORS, NUM_LEDS, 4, PANEL_WIDTH, PANEL_HEIGHT).sample(Render(image), frame, SamplingPlan.Filter.BOX);
+        return frame;
+    }
+}
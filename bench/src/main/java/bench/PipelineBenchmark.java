@@ -0,0 +1,85 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// The SectoredCircle stages in pipeline order; each benchmark starts from the state the previous stages leave behind
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PipelineBenchmark {
+
+    @Param({Frames.SYNTHETIC, "../export.jpg"})
+    public String image;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Stages stages;
+    private BufferedImage frame;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        stages = new Stages(Frames.Load(image), parallelism);
+        frame = stages.renderFrame();
+
+        stages.sampleImage(frame);
+        stages.expandSampling();
+        stages.sampleDifferences();
+        stages.sampleDerivative(true);
+        stages.sampleTransform(true);
+        stages.compileSamples();
+    }
+
+    @Benchmark
+    public void sampleImage(){
+        stages.sampleImage(frame);
+    }
+
+    @Benchmark
+    public void expandSampling(){
+        stages.expandSampling();
+    }
+
+    @Benchmark
+    public void sampleDifferences(){
+        stages.sampleDifferences();
+    }
+
+    @Benchmark
+    public void sampleDerivative(){
+        stages.sampleDerivative(true);
+    }
+
+    @Benchmark
+    public void sampleTransform(){
+        stages.sampleTransform(true);
+    }
+
+    @Benchmark
+    public void sampleITransform(){
+        stages.sampleITransform(true);
+    }
+
+    @Benchmark
+    public void compileSamples(){
+        stages.compileSamples();
+    }
+
+    // sample() without the panel snapshot and file writes
+    @Benchmark
+    public void pipeline(){
+        stages.sampleImage(frame);
+        stages.expandSampling();
+        stages.sampleDifferences();
+        stages.sampleDerivative(true);
+        stages.compileSamples();
+        stages.sampleTransform(true);
+        stages.sampleITransform(true);
+    }
+}
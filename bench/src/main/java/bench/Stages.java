@@ -0,0 +1,108 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+// SectoredCircle lives in the default package, which a named package cannot import, so its stages are bound by name
+public class Stages {
+
+    private final Object circle;
+    private final MethodHandle sampleImage, expandSampling, sampleDifferences, sampleDerivative,
+                               sampleTransform, sampleITransform, compileSamples;
+
+    public Stages(BufferedImage image, int parallelism){
+        try {
+            Class<?> type = Class.forName("SectoredCircle");
+            circle = type.getConstructor().newInstance();
+
+            type.getMethod("setImage", BufferedImage.class).invoke(circle, image);
+            type.getMethod("setSamplingParallelism", int.class).invoke(circle, parallelism);
+
+            sampleImage = bind(type, "sampleImage", BufferedImage.class);
+            expandSampling = bind(type, "expandSampling");
+            sampleDifferences = bind(type, "sampleDifferences");
+            sampleDerivative = bind(type, "sampleDerivative", boolean.class);
+            sampleTransform = bind(type, "sampleTransform", boolean.class);
+            sampleITransform = bind(type, "sampleITransform", boolean.class);
+            compileSamples = bind(type, "compileSamples");
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private MethodHandle bind(Class<?> type, String name, Class<?>... parameters) throws ReflectiveOperationException {
+        Method method = type.getDeclaredMethod(name, parameters);
+        method.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(method).bindTo(circle);
+        // Stages that report, like compileSamples, have their result dropped so every handle is invoked as void
+        return handle.asType(handle.type().changeReturnType(void.class));
+    }
+
+    public BufferedImage renderFrame(){
+        try {
+            Method method = circle.getClass().getDeclaredMethod("renderFrame");
+            method.setAccessible(true);
+            return (BufferedImage) method.invoke(circle);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // invokeExact keeps the calls free of boxing so the gc profiler only sees the stages' own allocations
+
+    public void sampleImage(BufferedImage frame){
+        try {
+            sampleImage.invokeExact(frame);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public void expandSampling(){
+        run(expandSampling);
+    }
+
+    public void sampleDifferences(){
+        run(sampleDifferences);
+    }
+
+    public void compileSamples(){
+        run(compileSamples);
+    }
+
+    public void sampleDerivative(boolean useDCT){
+        run(sampleDerivative, useDCT);
+    }
+
+    public void sampleTransform(boolean useDCT){
+        run(sampleTransform, useDCT);
+    }
+
+    public void sampleITransform(boolean useDCT){
+        run(sampleITransform, useDCT);
+    }
+
+    private static void run(MethodHandle stage){
+        try {
+            stage.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static void run(MethodHandle stage, boolean useDCT){
+        try {
+            stage.invokeExact(useDCT);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e){
+        if (e instanceof RuntimeException runtime) return runtime;
+        if (e instanceof Error error) throw error;
+        return new RuntimeException(e);
+    }
+}
@@ -0,0 +1,122 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import util.PlanarFrame;
+import util.PolarFrame;
+import util.PolarSpectrum;
+import util.TransformationUtils;
+
+import java.util.concurrent.TimeUnit;
+
+// Each TransformationUtils pass over a sampled frame, planar and packed
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TransformBenchmark {
+
+    private static final int SECTORS = Frames.SECTORS, NUM_LEDS = Frames.NUM_LEDS;
+
+    @Param({Frames.SYNTHETIC, "../export.jpg"})
+    public String image;
+
+    @Param({"true", "false"})
+    public boolean useDCT;
+
+    @Param({"12"})
+    public int ftSamples;
+
+    private PolarFrame frame, packed, imaginary, real;
+    private PlanarFrame planes, derivative, out;
+    private PolarSpectrum spectrum;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        frame = Frames.Sample(Frames.Load(image));
+        packed = new PolarFrame(SECTORS, NUM_LEDS);
+        imaginary = new PolarFrame(SECTORS, NUM_LEDS);
+        real = new PolarFrame(SECTORS, NUM_LEDS);
+
+        planes = PlanarFrame.Split(frame);
+        derivative = new PlanarFrame(SECTORS, NUM_LEDS);
+        out = new PlanarFrame(SECTORS, NUM_LEDS);
+        spectrum = new PolarSpectrum(SECTORS, NUM_LEDS);
+
+        TransformationUtils.RadialDerivative(planes, derivative, SECTORS);
+        TransformationUtils.RadialFourierTransform(planes, imaginary, real, spectrum, SECTORS, ftSamples, useDCT);
+    }
+
+    @Benchmark
+    public PlanarFrame split(){
+        planes.split(frame);
+        return planes;
+    }
+
+    @Benchmark
+    public PolarFrame pack(){
+        planes.pack(packed);
+        return packed;
+    }
+
+    @Benchmark
+    public PlanarFrame radialDerivative(){
+        TransformationUtils.RadialDerivative(planes, out, SECTORS);
+        return out;
+    }
+
+    @Benchmark
+    public PlanarFrame radialIntegration(){
+        TransformationUtils.RadialIntegration(derivative, out, SECTORS);
+        return out;
+    }
+
+    @Benchmark
+    public PlanarFrame angularDerivative(){
+        TransformationUtils.AngularDerivative(planes, out, SECTORS);
+        return out;
+    }
+
+    @Benchmark
+    public PlanarFrame angularIntegration(){
+        TransformationUtils.AngularIntegration(derivative, out, SECTORS);
+        return out;
+    }
+
+    @Benchmark
+    public PolarFrame radialDerivativePacked(){
+        TransformationUtils.RadialDerivative(frame, packed, SECTORS);
+        return packed;
+    }
+
+    @Benchmark
+    public PolarFrame angularDerivativePacked(){
+        TransformationUtils.AngularDerivative(frame, packed, SECTORS);
+        return packed;
+    }
+
+    @Benchmark
+    public PolarSpectrum radialFourierTransform(){
+        TransformationUtils.RadialFourierTransform(planes, imaginary, real, spectrum, SECTORS, ftSamples, useDCT);
+        return spectrum;
+    }
+
+    @Benchmark
+    public PolarSpectrum angularFourierTransform(){
+        TransformationUtils.AngularFourierTransform(planes, imaginary, real, spectrum, NUM_LEDS, ftSamples, useDCT);
+        return spectrum;
+    }
+
+    @Benchmark
+    public PlanarFrame inverseRadialFourierTransform(){
+        TransformationUtils.InverseRadialFourierTransform(spectrum, out, SECTORS, ftSamples, 0, ftSamples - 2, useDCT);
+        return out;
+    }
+
+    @Benchmark
+    public PlanarFrame inverseAngularFourierTransform(){
+        TransformationUtils.InverseAngularFourierTransform(spectrum, out, NUM_LEDS, ftSamples, 0, ftSamples - 2, useDCT);
+        return out;
+    }
+}
@@ -0,0 +1,73 @@
+import bench.Frames;
+import org.junit.jupiter.api.Test;
+import util.PolarFrame;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// display() sent through BladeSimulator, as its main does, and checked against the sampled frame
+class BladeSimulatorTest {
+
+    private static final int FRAMES = 3;
+
+    @Test
+    void displayedFramesVerify() throws InterruptedException {
+        Run(new SectoredCircle(), 0, 0);
+    }
+
+    @Test
+    void bulkUploadOverSlowLinkVerifies() throws InterruptedException {
+        SectoredCircle circle = new SectoredCircle();
+        circle.setBulkUpload(true);
+        circle.setUploadWindow(4);
+
+        // 1 MB/s and 2 ms each way: every frame takes at least a round trip to apply
+        for (BladeSimulator.FrameStats stats : Run(circle, 1_000_000, 2_000_000)) {
+            assertTrue(stats.bytes() > 0);
+            assertTrue(stats.applyNanos() >= 2_000_000, "applied in " + stats.applyNanos() + " ns");
+        }
+    }
+
+    @Test
+    void displayChangesVerify() throws InterruptedException {
+        BladeSimulator blade = new BladeSimulator(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS, 0, 0, false);
+        try {
+            PolarFrame previous = Frames.Sample(Frames.Synthetic(Frames.PANEL_WIDTH, Frames.PANEL_HEIGHT, 1));
+            PolarFrame current = Frames.Sample(Frames.Synthetic(Frames.PANEL_WIDTH, Frames.PANEL_HEIGHT, 2));
+
+            SectoredCircle.DisplayChanges(blade, null, previous);
+            assertTrue(blade.awaitFrames(1, 60, TimeUnit.SECONDS));
+            assertEquals(0, blade.verify(previous));
+
+            SectoredCircle.DisplayChanges(blade, previous, current);
+            assertTrue(blade.awaitFrames(2, 60, TimeUnit.SECONDS));
+            assertEquals(0, blade.verify(current));
+            assertEquals(0, blade.errors());
+        } finally {
+            blade.close();
+        }
+    }
+
+    // Samples and displays FRAMES frames of the synthetic image, nudged a pixel each time, verifying each
+    private static List<BladeSimulator.FrameStats> Run(SectoredCircle circle, long bandwidth, long latency) throws InterruptedException {
+        BladeSimulator blade = new BladeSimulator(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS, bandwidth, latency, false);
+        try {
+            circle.setImage(Frames.Load(Frames.SYNTHETIC));
+            for (int frame = 0; frame < FRAMES; frame++) {
+                circle.setXoffset(frame % 2);
+                circle.sample();
+                circle.display(blade);
+
+                assertTrue(blade.awaitFrames(frame + 1, 60, TimeUnit.SECONDS), "frame " + frame + " was never committed");
+                assertEquals(0, blade.verify(circle.getFrame()), "sectors differing in frame " + frame);
+            }
+            assertEquals(0, blade.errors());
+            return blade.frames();
+        } finally {
+            blade.close();
+        }
+    }
+}
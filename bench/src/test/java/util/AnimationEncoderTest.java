@@ -0,0 +1,141 @@
+package util;
+
+import bench.Frames;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// .ria round trips through a file: keyframes, deltas against the same and against other sectors, and damaged runs
+class AnimationEncoderTest {
+
+    private static final int HEADER_SIZE = 16, PREFIX_SIZE = 5;
+
+    // frame turned by sectors, a rotation the delta search reaches at a small radius
+    private static PolarFrame Rotated(PolarFrame frame, int sectors){
+        PolarFrame rotated = new PolarFrame(frame.sectors(), frame.leds());
+        for (int i = 0; i < frame.sectors(); i++) {
+            System.arraycopy(frame.data(), frame.index(i, 0), rotated.data(),
+                    rotated.index(Math.floorMod(i + sectors, frame.sectors()), 0), frame.leds());
+        }
+        return rotated;
+    }
+
+    private static List<PolarFrame> Sequence(){
+        PolarFrame synthetic = CanonicalHuffmanTest.Synthetic();
+
+        PolarFrame painted = new PolarFrame(synthetic);
+        for (int led = 10; led < 20; led++) painted.set(5, led, 0xFF00FF);
+
+        return List.of(synthetic, painted, Rotated(painted, 2), Rotated(painted, 2),
+                CanonicalHuffmanTest.SingleColour(), CanonicalHuffmanTest.AllDistinct());
+    }
+
+    private static List<AnimationEncoder.Frame> Encode(AnimationEncoder encoder, List<PolarFrame> frames){
+        List<AnimationEncoder.Frame> encoded = new ArrayList<>();
+        for (PolarFrame frame : frames) encoded.add(encoder.encode(frame));
+        return encoded;
+    }
+
+    private static ByteBuffer Write(List<AnimationEncoder.Frame> frames) throws IOException {
+        Path path = TempFile();
+        AnimationEncoder.Write(path, frames, Frames.SECTORS, Frames.NUM_LEDS, 30);
+        return ByteBuffer.wrap(Files.readAllBytes(path));
+    }
+
+    // Reader maps its file, which cannot be deleted while mapped everywhere, so files go on exit
+    private static AnimationEncoder.Reader Open(ByteBuffer bytes) throws IOException {
+        Path path = TempFile();
+        Files.write(path, bytes.array());
+        return AnimationEncoder.Reader.Open(path);
+    }
+
+    private static Path TempFile() throws IOException {
+        Path path = Files.createTempFile("animation", ".ria");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    // Reads every frame of the file back, checking each against expected
+    private static void Play(ByteBuffer bytes, List<PolarFrame> expected) throws IOException {
+        AnimationEncoder.Reader reader = Open(bytes);
+        assertEquals(expected.size(), reader.frames());
+        assertEquals(30, reader.fps());
+
+        PolarFrame current = new PolarFrame(reader.sectors(), reader.leds());
+        for (int i = 0; reader.hasNext(); i++) {
+            AnimationEncoder.Apply(reader.next(), current);
+            assertEquals(expected.get(i), current, "frame " + i);
+        }
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        List<PolarFrame> frames = Sequence();
+        List<AnimationEncoder.Frame> encoded = Encode(new AnimationEncoder(Frames.SECTORS, Frames.NUM_LEDS), frames);
+
+        assertTrue(encoded.get(0).isKeyframe());
+
+        // A painted sector stores only its own run
+        assertEquals(List.of(5), encoded.get(1).deltas().stream().map(AnimationEncoder.SectorDelta::sector).toList());
+        assertEquals(1, encoded.get(1).deltas().get(0).runCount());
+
+        // The rotation is copied from other sectors with nothing painted over them
+        AnimationEncoder.Frame rotation = encoded.get(2);
+        assertFalse(rotation.isKeyframe());
+        assertTrue(rotation.deltas().stream().anyMatch(delta -> delta.source() != delta.sector()));
+        for (AnimationEncoder.SectorDelta delta : rotation.deltas()) assertEquals(0, delta.runCount());
+
+        // An unchanged frame stores nothing
+        assertEquals(0, encoded.get(3).deltas().size());
+
+        Play(Write(encoded), frames);
+    }
+
+    @Test
+    void keyframeInterval() throws IOException {
+        List<PolarFrame> frames = Sequence().subList(0, 4);
+        List<AnimationEncoder.Frame> encoded = Encode(new AnimationEncoder(Frames.SECTORS, Frames.NUM_LEDS, 2, 4, 0), frames);
+
+        for (int i = 0; i < encoded.size(); i++) assertEquals(i % 2 == 0, encoded.get(i).isKeyframe(), "frame " + i);
+        Play(Write(encoded), frames);
+    }
+
+    @Test
+    void rejectsRunsOutsideTheSector() throws IOException {
+        List<PolarFrame> frames = Sequence().subList(0, 4);
+        List<AnimationEncoder.Frame> encoded = Encode(new AnimationEncoder(Frames.SECTORS, Frames.NUM_LEDS), frames);
+        ByteBuffer bytes = Write(encoded);
+
+        // The painted frame's only run: past the keyframe, then the delta's changed count and its sector,
+        // source and run count
+        int position = HEADER_SIZE + PREFIX_SIZE + bytes.getInt(HEADER_SIZE + 1);
+        int run = position + PREFIX_SIZE + 2 + 5;
+
+        ByteBuffer end = Copy(bytes);
+        end.put(run + 1, (byte) (Frames.NUM_LEDS + 1));
+        assertThrows(IllegalArgumentException.class, () -> Read(end, 4));
+
+        ByteBuffer empty = Copy(bytes);
+        empty.put(run + 1, empty.get(run));
+        assertThrows(IllegalArgumentException.class, () -> Read(empty, 4));
+    }
+
+    private static void Read(ByteBuffer bytes, int frames) throws IOException {
+        AnimationEncoder.Reader reader = Open(bytes);
+        for (int i = 0; i < frames; i++) reader.next();
+    }
+
+    private static ByteBuffer Copy(ByteBuffer buffer){
+        return ByteBuffer.wrap(buffer.array().clone());
+    }
+}
@@ -0,0 +1,97 @@
+package util;
+
+import bench.Frames;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Per-sector and palette round trips over the synthetic frame and the frames that stress the code table
+class CanonicalHuffmanTest {
+
+    static PolarFrame Synthetic(){
+        return Frames.Sample(Frames.Load(Frames.SYNTHETIC));
+    }
+
+    // One colour everywhere: a single symbol and one run per sector
+    static PolarFrame SingleColour(){
+        PolarFrame frame = new PolarFrame(Frames.SECTORS, Frames.NUM_LEDS);
+        Arrays.fill(frame.data(), 0x123456);
+        return frame;
+    }
+
+    // Every LED its own colour: a run per LED and as many symbols as LEDs
+    static PolarFrame AllDistinct(){
+        PolarFrame frame = new PolarFrame(Frames.SECTORS, Frames.NUM_LEDS);
+        for (int i = 0; i < frame.data().length; i++) frame.data()[i] = i * 613 & 0xFFFFFF;
+        return frame;
+    }
+
+    // Signed differences, as a derivative frame holds
+    static PolarFrame Signed(){
+        PolarFrame frame = Synthetic();
+        int[] data = frame.data();
+        for (int i = data.length - 1; i > 0; i--) data[i] -= data[i - 1];
+        return frame;
+    }
+
+    @Test
+    void perSectorRoundTrip(){
+        for (PolarFrame frame : new PolarFrame[]{ Synthetic(), SingleColour(), AllDistinct(), Signed() }) {
+            CanonicalHuffman coder = new CanonicalHuffman(frame.leds());
+            int[] decoded = new int[frame.leds()];
+            for (int i = 0; i < frame.sectors(); i++) {
+                ByteBuffer encoded = coder.encode(frame.data(), frame.index(i, 0));
+                CanonicalHuffman.Decode(encoded, decoded, 0, frame.leds());
+                assertArrayEquals(Arrays.copyOfRange(frame.data(), frame.index(i, 0), frame.index(i + 1, 0)), decoded, "sector " + i);
+                assertEquals(0, encoded.remaining(), "sector " + i + " left bytes unread");
+            }
+        }
+    }
+
+    @Test
+    void paletteRoundTrip(){
+        for (PolarFrame frame : new PolarFrame[]{ Synthetic(), SingleColour(), AllDistinct(), Signed() }) {
+            CanonicalHuffman coder = new CanonicalHuffman(frame.leds(), frame.sectors() * frame.leds());
+            CanonicalHuffman.Table table = CanonicalHuffman.Table.Read(coder.buildTable(frame));
+
+            PolarFrame decoded = new PolarFrame(frame.sectors(), frame.leds());
+            for (int i = 0; i < frame.sectors(); i++) {
+                int offset = frame.index(i, 0);
+                ByteBuffer out = ByteBuffer.allocate(coder.maxIndexedSize());
+                coder.encodeIndexed(frame.data(), offset, out);
+                assertEquals(coder.indexedSize(frame.data(), offset), out.position(), "size of sector " + i);
+
+                table.decode(out.flip(), decoded.data(), offset, frame.leds());
+                assertEquals(0, out.remaining(), "sector " + i + " left bytes unread");
+            }
+            assertEquals(frame, decoded);
+        }
+    }
+
+    // The counts per length describe a complete prefix code over every symbol: Kraft's sum is exactly 1
+    @Test
+    void canonicalTableIsComplete(){
+        for (PolarFrame frame : new PolarFrame[]{ Synthetic(), AllDistinct() }) {
+            ByteBuffer table = new CanonicalHuffman(frame.leds(), frame.sectors() * frame.leds()).buildTable(frame);
+            table.get();
+            int count = table.getInt();
+            int maxLength = table.get() & 0xFF;
+
+            int symbols = 0;
+            long kraft = 0;
+            for (int l = 1; l <= maxLength; l++) {
+                int codes = table.getInt();
+                symbols += codes;
+                kraft += (long) codes << (maxLength - l);
+            }
+            assertEquals(count, symbols);
+            assertEquals(1L << maxLength, kraft);
+            assertTrue(maxLength <= 32);
+        }
+    }
+}
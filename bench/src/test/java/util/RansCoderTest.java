@@ -0,0 +1,92 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// rANS round trips at every table size the frames reach, and the normalisation the tables are built on
+class RansCoderTest {
+
+    // Codes every sector against one table and decodes it back; returns the table's scaleBits
+    private static int RoundTrip(PolarFrame frame){
+        RansCoder coder = new RansCoder(frame.leds());
+        ByteBuffer bytes = coder.buildTable(frame);
+        int scaleBits = bytes.get(1);
+        RansCoder.Table table = RansCoder.Table.Read(bytes);
+
+        PolarFrame decoded = new PolarFrame(frame.sectors(), frame.leds());
+        for (int i = 0; i < frame.sectors(); i++) {
+            int offset = frame.index(i, 0);
+            ByteBuffer out = ByteBuffer.allocate(coder.maxIndexedSize());
+            coder.encodeIndexed(frame.data(), offset, out);
+
+            table.decode(out.flip(), decoded.data(), offset, frame.leds());
+            assertEquals(0, out.remaining(), "sector " + i + " left bytes unread");
+        }
+        assertEquals(frame, decoded);
+        return scaleBits;
+    }
+
+    @Test
+    void roundTrip(){
+        assertEquals(RansCoder.MIN_SCALE_BITS, RoundTrip(CanonicalHuffmanTest.SingleColour()));
+        RoundTrip(CanonicalHuffmanTest.Synthetic());
+        RoundTrip(CanonicalHuffmanTest.Signed());
+
+        // 2^13 colours or more take the largest colour model
+        assertEquals(RansCoder.MAX_SCALE_BITS, RoundTrip(CanonicalHuffmanTest.AllDistinct()));
+    }
+
+    // Every scaleBits from the smallest to 18, by the number of colours in the frame
+    @Test
+    void roundTripEveryScale(){
+        for (int bits = RansCoder.MIN_SCALE_BITS; bits <= RansCoder.MAX_SCALE_BITS; bits++) {
+            int colours = 1 << (bits - 5);
+            PolarFrame frame = CanonicalHuffmanTest.AllDistinct();
+            int[] data = frame.data();
+            for (int i = 0; i < data.length; i++) data[i] %= colours;
+
+            assertEquals(bits, RoundTrip(frame), colours + " colours");
+        }
+    }
+
+    @Test
+    void normalizedFrequenciesFillTheSlots(){
+        Random random = new Random(3009);
+        for (int bits = RansCoder.MIN_SCALE_BITS; bits <= RansCoder.MAX_SCALE_BITS; bits++) {
+            int slots = 1 << bits;
+
+            // A skewed distribution with absent symbols, and one with a symbol for almost every slot
+            for (int n : new int[]{ 300, slots - 1 }) {
+                int[] counts = new int[n];
+                int total = 0;
+                for (int i = 0; i < n; i++) {
+                    counts[i] = i % 7 == 3 ? 0 : i == 0 ? 1_000_000 : 1 + random.nextInt(50);
+                    total += counts[i];
+                }
+
+                int[] frequencies = RansCoder.Normalize(counts.clone(), total, slots);
+                int sum = 0;
+                for (int i = 0; i < n; i++) {
+                    if (counts[i] == 0) assertEquals(0, frequencies[i]);
+                    else assertTrue(frequencies[i] >= 1);
+                    sum += frequencies[i];
+                }
+                assertEquals(slots, sum, n + " symbols in " + slots + " slots");
+            }
+        }
+    }
+
+    @Test
+    void rejectsMoreSymbolsThanSlots(){
+        int[] counts = new int[17];
+        Arrays.fill(counts, 1);
+        assertThrows(IllegalArgumentException.class, () -> RansCoder.Normalize(counts, counts.length, 16));
+    }
+}
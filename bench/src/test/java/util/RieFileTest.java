@@ -0,0 +1,124 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Containers of every readable coding, their sector index and the checks on a damaged header
+class RieFileTest {
+
+    private static final int[] CODINGS = { RieFile.CANONICAL_CODING, RieFile.PALETTE_CODING, RieFile.RANS_CODING };
+
+    // Sectors and table of frame in coding, as BatchRenderer writes them
+    private static ByteBuffer Encode(PolarFrame frame, int coding, HashMap<Integer, ByteBuffer> encoded){
+        ByteBuffer table = null;
+        if (coding == RieFile.CANONICAL_CODING) EncodingUtils.CanonicalHuffmanEncode(frame, encoded, frame.sectors());
+        else if (coding == RieFile.PALETTE_CODING) table = EncodingUtils.PaletteHuffmanEncode(frame, encoded, frame.sectors());
+        else table = EncodingUtils.RansEncode(frame, encoded, frame.sectors());
+        return RieFile.Encode(table, encoded, frame.sectors(), frame.leds(), coding);
+    }
+
+    @Test
+    void roundTripEveryCoding(){
+        PolarFrame frame = CanonicalHuffmanTest.Synthetic();
+        for (int coding : CODINGS) {
+            RieFile file = RieFile.Wrap(Encode(frame, coding, new HashMap<>()));
+            assertEquals(RieFile.VERSION, file.version());
+            assertEquals(coding, file.coding());
+            assertEquals(frame.sectors(), file.sectors());
+            assertEquals(frame.leds(), file.leds());
+            assertEquals(frame, file.decode(), "coding " + coding);
+        }
+    }
+
+    // Each index entry points at exactly the bytes the sector was encoded to, so sectors and rings decode alone
+    @Test
+    void offsetsAddressEachSector(){
+        PolarFrame frame = CanonicalHuffmanTest.Synthetic();
+        for (int coding : CODINGS) {
+            HashMap<Integer, ByteBuffer> encoded = new HashMap<>();
+            RieFile file = RieFile.Wrap(Encode(frame, coding, encoded));
+
+            int[] sector = new int[frame.leds()];
+            for (int i = 0; i < frame.sectors(); i++) {
+                assertTrue(file.hasSector(i));
+                assertEquals(encoded.get(i), file.sector(i), "coding " + coding + " sector " + i);
+
+                file.decodeSector(i, sector, 0);
+                for (int led = 0; led < frame.leds(); led++) assertEquals(frame.get(i, led), sector[led]);
+            }
+
+            int[] ring = new int[frame.sectors()];
+            file.decodeRing(frame.leds() / 2, ring);
+            for (int i = 0; i < frame.sectors(); i++) assertEquals(frame.get(i, frame.leds() / 2), ring[i]);
+        }
+    }
+
+    @Test
+    void missingSectorsDecodeToBlack(){
+        PolarFrame frame = CanonicalHuffmanTest.SingleColour();
+        HashMap<Integer, ByteBuffer> encoded = new HashMap<>();
+        EncodingUtils.CanonicalHuffmanEncode(frame, encoded, frame.sectors());
+        encoded.remove(7);
+
+        RieFile file = RieFile.Wrap(RieFile.Encode(null, encoded, frame.sectors(), frame.leds(), RieFile.CANONICAL_CODING));
+        assertFalse(file.hasSector(7));
+        assertTrue(file.hasSector(8));
+
+        PolarFrame decoded = file.decode();
+        for (int led = 0; led < frame.leds(); led++) assertEquals(0, decoded.get(7, led));
+        assertEquals(frame.get(8, 0), decoded.get(8, 0));
+    }
+
+    @Test
+    void writeThenOpen() throws IOException {
+        PolarFrame frame = CanonicalHuffmanTest.AllDistinct();
+        HashMap<Integer, ByteBuffer> encoded = new HashMap<>();
+        ByteBuffer table = EncodingUtils.PaletteHuffmanEncode(frame, encoded, frame.sectors());
+
+        Path path = Files.createTempFile("frame", ".rie");
+        try {
+            RieFile.Write(path, table, encoded, frame.sectors(), frame.leds(), RieFile.PALETTE_CODING);
+            assertEquals(frame, RieFile.Wrap(ByteBuffer.wrap(Files.readAllBytes(path))).decode());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void rejectsDamagedHeaders(){
+        PolarFrame frame = CanonicalHuffmanTest.Synthetic();
+        ByteBuffer bytes = Encode(frame, RieFile.PALETTE_CODING, new HashMap<>());
+
+        ByteBuffer magic = Copy(bytes);
+        magic.put(0, (byte) 0);
+        assertThrows(IllegalArgumentException.class, () -> RieFile.Wrap(magic));
+
+        ByteBuffer tree = Copy(bytes);
+        tree.put(6, (byte) RieFile.TREE_CODING);
+        assertThrows(IllegalArgumentException.class, () -> RieFile.Wrap(tree));
+
+        // The last offset past the end of the data
+        ByteBuffer index = Copy(bytes);
+        index.putInt(12 + frame.sectors() * 4, bytes.remaining() + 1);
+        assertThrows(IllegalArgumentException.class, () -> RieFile.Wrap(index));
+
+        // An offset before the one ahead of it
+        ByteBuffer order = Copy(bytes);
+        order.putInt(12 + 4, order.getInt(12) - 1);
+        assertThrows(IllegalArgumentException.class, () -> RieFile.Wrap(order));
+    }
+
+    private static ByteBuffer Copy(ByteBuffer buffer){
+        return ByteBuffer.allocate(buffer.remaining()).put(buffer.duplicate()).flip();
+    }
+}
@@ -0,0 +1,111 @@
+import util.AnimationEncoder;
+import util.PolarFrame;
+
+import javax.swing.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+/**
+ Plays a .ria animation on the blades and previews it on the panel.
+
+ <P>Frames are decoded in order on a daemon thread and paced to the file's frame rate. Only the LED
+ runs that changed since the frame before are transmitted; the first frame is sent whole. Each frame sent
+ makes the circle's next display a full refresh, since the blades no longer hold what it sent. The panel
+ only shows the newest decoded frame; frames the EDT has not got to yet are skipped, not queued.
+ */
+public class AnimationPlayer {
+
+    private final AnimationEncoder.Reader reader;
+    private final SectoredCircle circle;
+    private final RequestSink sink;
+    private final Lock serverLock;
+
+    private Thread thread;
+
+    // The newest frame not yet shown, null once the EDT has taken it
+    private final AtomicReference<PolarFrame> preview = new AtomicReference<>();
+
+    // A null sink only previews
+    public AnimationPlayer(AnimationEncoder.Reader reader, SectoredCircle circle, RequestSink sink, Lock serverLock){
+        if (reader.sectors() != SectoredCircle.SECTORS || reader.leds() != SectoredCircle.NUM_LEDS) {
+            throw new IllegalArgumentException("Animation is " + reader.sectors() + "x" + reader.leds() + ", expected "
+                    + SectoredCircle.SECTORS + "x" + SectoredCircle.NUM_LEDS);
+        }
+
+        this.reader = reader;
+        this.circle = circle;
+        this.sink = sink;
+        this.serverLock = serverLock;
+    }
+
+    public synchronized void start(){
+        if (thread != null) return;
+
+        thread = new Thread(this::play, "animation-player");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Returns once the player thread has stopped, so start can play on from the current frame
+    public synchronized void stop(){
+        if (thread == null) return;
+
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void play(){
+        PolarFrame current = new PolarFrame(reader.sectors(), reader.leds());
+        PolarFrame sent = null;
+
+        long interval = 1_000_000_000L / Math.max(reader.fps(), 1);
+        long next = System.nanoTime();
+        long commands = 0;
+        int frames = 0;
+
+        while (reader.hasNext() && !Thread.currentThread().isInterrupted()) {
+            AnimationEncoder.Apply(reader.next(), current);
+
+            if (sink != null) {
+                serverLock.lock();
+                try {
+                    if (sent == null) sink.addRequest("anim", Main.DISPLAY_ID, 3);
+                    commands += SectoredCircle.DisplayChanges(sink, sent, current);
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    // The blades no longer show what the circle's transmitter last sent them, even after a partial frame
+                    circle.refreshDisplay();
+                    serverLock.unlock();
+                }
+                if (sent == null) sent = new PolarFrame(current);
+                else sent.copyFrom(current);
+            }
+
+            if (preview.getAndSet(new PolarFrame(current)) == null) {
+                SwingUtilities.invokeLater(() -> {
+                    circle.showFrame(preview.getAndSet(null));
+                    circle.repaint();
+                });
+            }
+            frames++;
+
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        System.out.println(String.format("Played %d of %d frames, %d LED commands", frames, reader.frames(), commands));
+    }
+}
@@ -0,0 +1,335 @@
+import util.AnimationEncoder;
+import util.ColorQuantizer;
+import util.EncodingUtils;
+import util.PlanarFrame;
+import util.PolarFrame;
+import util.RieFile;
+import util.SamplingPlan;
+import util.TransformationUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Headless batch mode: renders a directory or glob of images to .rie files without the Swing UI.
+
+ <P>Each image is rasterized the way the panel draws it with the guide hidden, sampled, expanded and
+ Huffman encoded to &lt;name&gt;.rie, optionally with &lt;name&gt;.derivative.rie next to it. Files are
+ spread across a thread pool, each one sampled on its own thread.
+
+ <P>Files are palette coded, one canonical Huffman table for the whole frame; with -v the bytes saved against
+ per-sector tables are reported. --coding rans codes run colours and lengths with rANS against frame-wide
+ models instead, and -v reports the bytes saved against palette coding. The comparison encodes each frame
+ a second time, so it is left out of plain runs. --coding sector writes per-sector
+ tables and --coding tree (or --legacy-huffman) the old tree format. --verify reads each file back in and checks it decodes to the frame
+ that was encoded; the tree format cannot be decoded and is not checked.
+
+ <P>--colours K quantizes each frame to at most K colours before expansion (k-means in --metric lab or rgb).
+ Frames are quantized independently, since files finish in no particular order.
+
+ <P>--animation file.ria encodes the images, in name order, as one animation instead: keyframes every
+ --keyframe N frames plus per-sector deltas against the frame before, played back at --fps. Images are
+ sampled across the pool and then quantized and encoded in order, so --colours keeps a temporal palette.
+
+ <P>Usage: BatchRenderer &lt;dir|glob&gt; [-o outDir] [-x xOff] [-y yOff] [-s scaling] [-j threads]
+ [--filter box|sat] [--arc] [--derivative] [--coding palette|rans|sector|tree] [--colours K] [--metric lab|rgb]
+ [--animation file.ria] [--fps N] [--keyframe N] [--verify] [-v]
+ */
+public class BatchRenderer {
+
+    private Path outDir;
+    private int xOff, yOff, scaling;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private SamplingPlan.Filter filter = SamplingPlan.Filter.BOX;
+    private int coding = RieFile.PALETTE_CODING;
+    private int colours;
+    private ColorQuantizer.Metric metric = ColorQuantizer.Metric.LAB;
+    private boolean arcRadii, derivative, verify, verbose;
+    private Path animation;
+    private int fps = 30, keyframeInterval = AnimationEncoder.DEFAULT_KEYFRAME_INTERVAL;
+
+    private final AtomicLong bytesWritten = new AtomicLong(), bytesSaved = new AtomicLong();
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length == 0) {
+            System.err.println("Usage: BatchRenderer <dir|glob> [-o outDir] [-x xOff] [-y yOff] [-s scaling] [-j threads] "
+                    + "[--filter box|sat] [--arc] [--derivative] [--coding palette|rans|sector|tree] [--colours K] [--metric lab|rgb] "
+                    + "[--animation file.ria] [--fps N] [--keyframe N] [--verify] [-v]");
+            System.exit(2);
+        }
+
+        BatchRenderer renderer = new BatchRenderer();
+        String input = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o" -> renderer.outDir = Paths.get(args[++i]);
+                case "-x" -> renderer.xOff = Integer.parseInt(args[++i]);
+                case "-y" -> renderer.yOff = Integer.parseInt(args[++i]);
+                case "-s" -> renderer.scaling = Integer.parseInt(args[++i]);
+                case "-j" -> renderer.threads = Math.max(1, Integer.parseInt(args[++i]));
+                case "--filter" -> renderer.filter = args[++i].equalsIgnoreCase("sat") ? SamplingPlan.Filter.SUMMED_AREA : SamplingPlan.Filter.BOX;
+                case "--arc" -> renderer.arcRadii = true;
+                case "--derivative" -> renderer.derivative = true;
+                case "--coding" -> renderer.coding = switch (args[++i]) {
+                    case "tree" -> RieFile.TREE_CODING;
+                    case "sector" -> RieFile.CANONICAL_CODING;
+                    case "rans" -> RieFile.RANS_CODING;
+                    default -> RieFile.PALETTE_CODING;
+                };
+                case "--legacy-huffman" -> renderer.coding = RieFile.TREE_CODING;
+                case "--colours" -> renderer.colours = Integer.parseInt(args[++i]);
+                case "--metric" -> renderer.metric = ColorQuantizer.Metric.valueOf(args[++i].toUpperCase());
+                case "--animation" -> renderer.animation = Paths.get(args[++i]);
+                case "--fps" -> renderer.fps = Integer.parseInt(args[++i]);
+                case "--keyframe" -> renderer.keyframeInterval = Integer.parseInt(args[++i]);
+                case "--verify" -> renderer.verify = true;
+                case "-v" -> renderer.verbose = true;
+                default -> input = args[i];
+            }
+        }
+
+        try {
+            List<Path> images = Resolve(input);
+            if (images.isEmpty()) {
+                System.err.println("No images match " + input);
+                System.exit(1);
+            }
+
+            int failed = renderer.animation != null ? renderer.animate(images) : renderer.render(images);
+            System.exit(failed == 0 ? 0 : 1);
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // A directory means every image ImageIO can read in it; anything else is a glob on the file name
+    static List<Path> Resolve(String input) throws IOException {
+        Path path = Paths.get(input);
+        PathMatcher matcher;
+        Path dir;
+
+        if (Files.isDirectory(path)) {
+            Set<String> suffixes = new HashSet<>();
+            for (String suffix : ImageIO.getReaderFileSuffixes()) suffixes.add(suffix.toLowerCase());
+
+            dir = path;
+            matcher = file -> {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                return dot > 0 && suffixes.contains(name.substring(dot + 1).toLowerCase());
+            };
+        } else {
+            dir = path.getParent() != null ? path.getParent() : Paths.get(".");
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+        }
+
+        List<Path> images = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && matcher.matches(file.getFileName())) images.add(file);
+            }
+        }
+
+        Collections.sort(images);
+        return images;
+    }
+
+    // Returns the number of images that failed
+    int render(List<Path> images) throws IOException, InterruptedException {
+        if (outDir != null) Files.createDirectories(outDir);
+
+        SamplingPlan plan = SectoredCircle.Plan(arcRadii);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, images.size()));
+
+        long start = System.nanoTime();
+
+        List<Future<?>> results = new ArrayList<>();
+        for (Path image : images) {
+            results.add(executor.submit(() -> {
+                render(image, plan);
+                return null;
+            }));
+        }
+
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println("Failed " + images.get(i) + ": " + e.getCause());
+            }
+        }
+        executor.shutdown();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int rendered = images.size() - failed;
+        System.out.println(String.format("Rendered %d of %d images in %.2f s: %.1f frames/s, %.2f MB/s written on %d threads",
+                rendered, images.size(), seconds, rendered / seconds, bytesWritten.get() / 1e6 / seconds,
+                Math.min(threads, images.size())));
+        if (verbose && RieFile.HasTable(coding)) {
+            System.out.println(String.format("%s coding saved %d bytes (%.1f%%) against %s",
+                    coding == RieFile.RANS_CODING ? "rANS" : "Palette", bytesSaved.get(),
+                    100.0 * bytesSaved.get() / (bytesWritten.get() + bytesSaved.get()),
+                    coding == RieFile.RANS_CODING ? "palette coding" : "per-sector tables"));
+        }
+
+        return failed;
+    }
+
+    // Returns the number of images that failed; failed images are left out of the animation
+    int animate(List<Path> images) throws IOException, InterruptedException {
+        SamplingPlan plan = SectoredCircle.Plan(arcRadii);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, images.size()));
+
+        long start = System.nanoTime();
+
+        List<Future<PolarFrame>> results = new ArrayList<>();
+        for (Path image : images) {
+            results.add(executor.submit(() -> {
+                BufferedImage img = ImageIO.read(image.toFile());
+                if (img == null) throw new IOException("Unreadable image");
+
+                PolarFrame sampled = new PolarFrame(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS);
+                plan.sample(SectoredCircle.Rasterize(img, xOff, yOff, scaling), sampled, filter);
+                return sampled;
+            }));
+        }
+
+        ColorQuantizer quantizer = colours > 0 ? new ColorQuantizer(colours, metric, true) : null;
+        AnimationEncoder encoder = new AnimationEncoder(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS, keyframeInterval,
+                AnimationEncoder.DEFAULT_SEARCH_RADIUS, 0);
+
+        List<AnimationEncoder.Frame> frames = new ArrayList<>();
+        List<PolarFrame> expected = new ArrayList<>();
+        int failed = 0, keyframes = 0;
+        long deltaBytes = 0;
+
+        // Deltas depend on the frame before, so everything after sampling runs in order
+        for (int i = 0; i < results.size(); i++) {
+            PolarFrame sampled;
+            try {
+                sampled = results.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println("Failed " + images.get(i) + ": " + e.getCause());
+                continue;
+            }
+
+            if (quantizer != null) quantizer.quantize(sampled, null);
+            PolarFrame full = new PolarFrame(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS);
+            SectoredCircle.ExpandSampling(sampled, full, new BitSet(SectoredCircle.SECTORS));
+
+            AnimationEncoder.Frame frame = encoder.encode(full);
+            frames.add(frame);
+            if (verify) expected.add(full);
+
+            if (frame.isKeyframe()) keyframes++;
+            else deltaBytes += frame.size();
+
+            if (verbose) {
+                System.out.println(String.format("%s %s, %d changed sectors", images.get(i),
+                        frame.isKeyframe() ? "keyframe" : "delta", frame.isKeyframe() ? SectoredCircle.SECTORS : frame.deltas().size()));
+            }
+        }
+        executor.shutdown();
+
+        if (animation.getParent() != null) Files.createDirectories(animation.getParent());
+        AnimationEncoder.Write(animation, frames, SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS, fps);
+
+        if (verify) {
+            AnimationEncoder.Reader reader = AnimationEncoder.Reader.Open(animation);
+            PolarFrame decoded = new PolarFrame(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS);
+            for (int i = 0; reader.hasNext(); i++) {
+                AnimationEncoder.Apply(reader.next(), decoded);
+                if (!decoded.equals(expected.get(i))) throw new IOException("Round trip mismatch at frame " + i + " of " + animation);
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int deltas = frames.size() - keyframes;
+        System.out.println(String.format("Encoded %d of %d images in %.2f s to %s: %d bytes, %d keyframes, %d deltas averaging %d bytes",
+                frames.size(), images.size(), seconds, animation, Files.size(animation), keyframes, deltas,
+                deltas > 0 ? deltaBytes / deltas : 0));
+
+        return failed;
+    }
+
+    private void render(Path image, SamplingPlan plan) throws IOException {
+        long start = System.nanoTime();
+
+        BufferedImage img = ImageIO.read(image.toFile());
+        if (img == null) throw new IOException("Unreadable image");
+
+        PolarFrame sampled = new PolarFrame(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS);
+        PolarFrame full = new PolarFrame(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS);
+
+        plan.sample(SectoredCircle.Rasterize(img, xOff, yOff, scaling), sampled, filter);
+        if (colours > 0) new ColorQuantizer(colours, metric, false).quantize(sampled, null);
+        SectoredCircle.ExpandSampling(sampled, full, new BitSet(SectoredCircle.SECTORS));
+
+        String name = image.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        Path dir = outDir != null ? outDir : (image.getParent() != null ? image.getParent() : Paths.get("."));
+
+        write(full, dir.resolve(name + ".rie"));
+
+        if (derivative) {
+            PlanarFrame derivativePlanes = new PlanarFrame(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS);
+            PolarFrame derivativeFrame = new PolarFrame(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS);
+            TransformationUtils.RadialDerivative(PlanarFrame.Split(full), derivativePlanes, SectoredCircle.SECTORS);
+            derivativePlanes.pack(derivativeFrame);
+
+            write(derivativeFrame, dir.resolve(name + ".derivative.rie"));
+        }
+
+        if (verbose) {
+            System.out.println(String.format("%s %.1f ms", image, (System.nanoTime() - start) / 1e6));
+        }
+    }
+
+    private void write(PolarFrame frame, Path file) throws IOException {
+        HashMap<Integer, ByteBuffer> encoded = new HashMap<>();
+        ByteBuffer table = null;
+
+        if (coding == RieFile.TREE_CODING) {
+            EncodingUtils.HuffmanEncode(frame, encoded, SectoredCircle.SECTORS);
+        } else if (coding == RieFile.CANONICAL_CODING) {
+            EncodingUtils.CanonicalHuffmanEncode(frame, encoded, SectoredCircle.SECTORS);
+        } else if (coding == RieFile.RANS_CODING) {
+            table = EncodingUtils.RansEncode(frame, encoded, SectoredCircle.SECTORS);
+        } else {
+            table = EncodingUtils.PaletteHuffmanEncode(frame, encoded, SectoredCircle.SECTORS);
+        }
+
+        RieFile.Write(file, table, encoded, SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS, coding);
+        bytesWritten.addAndGet(Files.size(file));
+
+        if (verbose && coding == RieFile.PALETTE_CODING) {
+            HashMap<Integer, ByteBuffer> perSector = new HashMap<>();
+            EncodingUtils.CanonicalHuffmanEncode(frame, perSector, SectoredCircle.SECTORS);
+            bytesSaved.addAndGet(EncodingUtils.EncodedSize(perSector) - EncodingUtils.EncodedSize(encoded) - table.remaining());
+        } else if (verbose && coding == RieFile.RANS_CODING) {
+            HashMap<Integer, ByteBuffer> palette = new HashMap<>();
+            ByteBuffer paletteTable = EncodingUtils.PaletteHuffmanEncode(frame, palette, SectoredCircle.SECTORS);
+            bytesSaved.addAndGet(EncodingUtils.EncodedSize(palette) + paletteTable.remaining() - EncodingUtils.EncodedSize(encoded) - table.remaining());
+        }
+
+        // The tree format has no decoder; the file is read onto the heap, as a mapping would outlive the check
+        if (verify && coding != RieFile.TREE_CODING
+                && !RieFile.Wrap(ByteBuffer.wrap(Files.readAllBytes(file))).decode().equals(frame)) {
+            throw new IOException("Round trip mismatch in " + file);
+        }
+    }
+}
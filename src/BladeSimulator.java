@@ -0,0 +1,518 @@
+import util.AnimationEncoder;
+import util.PolarFrame;
+import util.SectorCompiler;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ In-process stand-in for the blade: takes the request stream display() produces, rebuilds the frame the
+ way the arms would and models each client's link, so uploads can be measured and checked without hardware.
+
+ <P>Every client has its own link of bandwidth bytes per second (0 for unlimited) and a one-way latency. A
+ request occupies its client's link for its estimated size (SectorCompiler.RequestBytes), and addRequest
+ blocks while the link is more than SEND_BUFFER_NANOS behind, as a socket's send buffer would. Requests
+ are applied latency after they leave, on the simulator's device thread, in the order they left.
+
+ <P>The device holds a shown frame and a staged copy. stage-fr opens the staged copy; stage-ar takes one of
+ its sectors to edit in place, copy-ar replaces that with an earlier staged sector, led and leds paint it
+ and commit-ar writes it back; ar-bulk does the same for each sector of its packet. commit-fr makes the
+ staged frame the shown one. A sector never painted repeats the one before, as the blades do for sectors
+ display() skips. anim, mult, throttle, start and stop are recorded; anything else, or a request out of
+ order, counts as an error.
+
+ <P>Links are independent: a request on one client's link may be applied before one added earlier on
+ another's. awaitApplied returns once every request added so far for the given clients has been applied
+ and a latency has passed for the acknowledgement to come back, which is what the transmitter waits on
+ before sending sectors and before commit-fr. With frameBarrier, stage-fr and commit-fr are instead
+ barriers across clients, applied only once every request added before them has been and holding back
+ every request added after them. That models firmware which orders frame requests across arms on its
+ own; it is an assumption about the firmware, not verified, so it is off unless asked for.
+
+ <P>Each committed frame records its requests, bytes and apply latency, from its stage-fr being added to
+ its commit-fr being applied. verify compares the shown frame with the frame it was compiled from.
+
+ <P>Usage: BladeSimulator &lt;image&gt; [-x xOff] [-y yOff] [-s scaling] [--bandwidth bytes/s] [--latency ms]
+ [--frames N] [--nudge] [--full] [--bulk] [--window N] [--copy] [--frame-barrier]. Each frame is sampled, sent and verified;
+ --nudge moves the image a pixel every frame and --full resends every sector. With --animation file.ria
+ in place of the image, the animation's frames are sent as AnimationPlayer sends them, through
+ SectoredCircle.DisplayChanges, and verified; --frames then caps how many. Exits 1 if a frame does not
+ verify or the stream had errors.
+ */
+public class BladeSimulator implements RequestSink {
+
+    public static final long SEND_BUFFER_NANOS = 1_000_000;
+
+    public record FrameStats(long requests, long bytes, long applyNanos) {
+        public double megabytesPerSecond(){
+            return applyNanos > 0 ? bytes * 1e3 / applyNanos : 0;
+        }
+    }
+
+    private record Delivery(long at, long sequence, long added, byte client, String command, int[] args) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit){
+            return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other){
+            Delivery delivery = (Delivery) other;
+            if (at != delivery.at) return Long.compare(at, delivery.at);
+            return Long.compare(sequence, delivery.sequence);
+        }
+    }
+
+    private static class Link {
+        private long free;
+    }
+
+    private final int sectors, leds;
+    private final long bandwidth, latencyNanos;
+    private final boolean frameBarrier;
+
+    private final Map<Byte, Link> links = new HashMap<>();
+    private final DelayQueue<Delivery> pending = new DelayQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread device;
+
+    // Sequence numbers added but not applied, those of stage-fr and commit-fr, and arrivals held back by them
+    private final TreeSet<Long> outstanding = new TreeSet<>(), barriers = new TreeSet<>();
+    private final TreeMap<Long, Delivery> held = new TreeMap<>();
+
+    // Device state, changed on the device thread under this
+    private int[] shown, staged;
+    private BitSet shownPainted, stagedPainted;
+    private final Map<Byte, Integer> editing = new HashMap<>();
+    private final Map<Byte, int[]> edits = new HashMap<>();
+    private boolean open;
+    private int anim = -1, mult = -1, throttle = -1;
+    private boolean started;
+
+    private long stagedAt, frameRequests, frameBytes;
+    // Requests added and applied per client, for awaitApplied
+    private final Map<Byte, Long> added = new HashMap<>(), applied = new HashMap<>();
+    private long requests, bytes, errors;
+    private final List<FrameStats> frames = new ArrayList<>();
+
+    public BladeSimulator(int sectors, int leds, long bandwidth, long latencyNanos, boolean frameBarrier){
+        this.sectors = sectors;
+        this.leds = leds;
+        this.bandwidth = bandwidth;
+        this.latencyNanos = latencyNanos;
+        this.frameBarrier = frameBarrier;
+
+        this.shown = new int[sectors * leds];
+        this.shownPainted = new BitSet(sectors);
+
+        device = new Thread(this::run, "blade-simulator");
+        device.setDaemon(true);
+        device.start();
+    }
+
+    @Override
+    public void addRequest(String command, byte client, int... args){
+        send(command, client, args.clone());
+    }
+
+    @Override
+    public void addRequest(String command, byte client, ArrayList<Integer> args){
+        int[] values = new int[args.size()];
+        for (int i = 0; i < values.length; i++) values[i] = args.get(i);
+        send(command, client, values);
+    }
+
+    @Override
+    public void awaitApplied(byte... clients) throws InterruptedException {
+        synchronized (this) {
+            for (byte client : clients) {
+                long count = added.getOrDefault(client, 0L);
+                while (applied.getOrDefault(client, 0L) < count) wait();
+            }
+        }
+        TimeUnit.NANOSECONDS.sleep(latencyNanos);
+    }
+
+    private void send(String command, byte client, int[] args){
+        synchronized (this) {
+            added.merge(client, 1L, Long::sum);
+        }
+
+        long added = System.nanoTime();
+        int size = SectorCompiler.RequestBytes(args.length);
+        long transmit = bandwidth > 0 ? size * 1_000_000_000L / bandwidth : 0;
+
+        Link link;
+        synchronized (links) {
+            link = links.computeIfAbsent(client, c -> new Link());
+        }
+
+        long leaves;
+        synchronized (link) {
+            leaves = Math.max(added, link.free) + transmit;
+            link.free = leaves;
+        }
+
+        long behind;
+        while ((behind = leaves - System.nanoTime()) > SEND_BUFFER_NANOS) {
+            LockSupport.parkNanos(behind - SEND_BUFFER_NANOS);
+        }
+
+        // Sequence numbers follow the order requests were added in
+        synchronized (outstanding) {
+            long number = sequence.getAndIncrement();
+            outstanding.add(number);
+            if (frameBarrier && (command.equals("stage-fr") || command.equals("commit-fr"))) barriers.add(number);
+            pending.put(new Delivery(leaves + latencyNanos, number, added, client, command, args));
+        }
+    }
+
+    private void run(){
+        while (true) {
+            Delivery arrived;
+            try {
+                arrived = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            held.put(arrived.sequence(), arrived);
+            for (Delivery request = ready(); request != null; request = ready()) {
+                held.remove(request.sequence());
+                apply(request);
+                synchronized (outstanding) {
+                    outstanding.remove(request.sequence());
+                    barriers.remove(request.sequence());
+                }
+            }
+        }
+    }
+
+    // The first held request that may be applied, or null
+    private Delivery ready(){
+        synchronized (outstanding) {
+            for (Delivery request : held.values()) {
+                boolean barrier = barriers.contains(request.sequence());
+                if (barrier ? outstanding.first() == request.sequence() : barriers.isEmpty() || barriers.first() > request.sequence()) {
+                    return request;
+                }
+            }
+            return null;
+        }
+    }
+
+    private synchronized void apply(Delivery request){
+        applied.merge(request.client(), 1L, Long::sum);
+        notifyAll();
+
+        requests++;
+        frameRequests++;
+        int size = SectorCompiler.RequestBytes(request.args().length);
+        bytes += size;
+        frameBytes += size;
+
+        int[] args = request.args();
+        byte client = request.client();
+        switch (request.command()) {
+            case "stage-fr" -> {
+                if (args.length != 1 || args[0] != sectors) error(request, "expected " + sectors + " sectors");
+                staged = shown.clone();
+                stagedPainted = (BitSet) shownPainted.clone();
+                open = true;
+                stagedAt = request.added();
+                frameRequests = 1;
+                frameBytes = size;
+            }
+            case "stage-ar" -> {
+                if (!open || args.length != 1 || args[0] < 0 || args[0] >= sectors) {
+                    error(request, "no frame staged or bad sector");
+                    return;
+                }
+                int[] edit = new int[leds];
+                Resolve(staged, stagedPainted, args[0], leds, edit);
+                editing.put(client, args[0]);
+                edits.put(client, edit);
+            }
+            case "copy-ar" -> {
+                int[] edit = edits.get(client);
+                if (edit == null || args.length != 1 || args[0] < 0 || args[0] >= sectors) {
+                    error(request, "no sector staged or bad source");
+                    return;
+                }
+                Resolve(staged, stagedPainted, args[0], leds, edit);
+            }
+            case "led", "leds" -> {
+                int[] edit = edits.get(client);
+                boolean single = request.command().equals("led");
+                int start = args.length > 0 ? args[0] : -1;
+                int end = single ? start + 1 : args.length > 1 ? args[1] : -1;
+                if (edit == null || args.length != (single ? 2 : 3) || start < 0 || end > leds || start >= end) {
+                    error(request, "no sector staged or bad range");
+                    return;
+                }
+                Arrays.fill(edit, start, end, args[args.length - 1]);
+            }
+            case "commit-ar" -> {
+                int[] edit = edits.remove(client);
+                if (edit == null) {
+                    error(request, "no sector staged");
+                    return;
+                }
+                commit(editing.remove(client), edit);
+            }
+            case "ar-bulk" -> {
+                if (!open || !applyBulk(args)) error(request, "no frame staged or malformed packet");
+            }
+            case "commit-fr" -> {
+                if (!open || !edits.isEmpty()) error(request, "no frame staged or sectors left uncommitted");
+                if (!open) return;
+                shown = staged;
+                shownPainted = stagedPainted;
+                open = false;
+                frames.add(new FrameStats(frameRequests, frameBytes, System.nanoTime() - stagedAt));
+            }
+            case "anim" -> anim = args.length > 0 ? args[0] : -1;
+            case "mult" -> mult = args.length > 0 ? args[0] : -1;
+            case "throttle" -> throttle = args.length > 0 ? args[0] : -1;
+            case "start" -> started = true;
+            case "stop" -> started = false;
+            default -> error(request, "unknown command");
+        }
+    }
+
+    // Packets as FrameTransmitter writes them; false if the packet does not parse
+    private boolean applyBulk(int[] args){
+        if (args.length == 0) return false;
+
+        int position = 1;
+        int[] edit = new int[leds];
+        for (int i = 0; i < args[0]; i++) {
+            if (position >= args.length) return false;
+            int header = args[position++];
+            int sector = header >>> 20, source = ((header >>> 8) & 0xFFF) - 1, fills = header & 0xFF;
+            if (sector >= sectors || source >= sectors || position + fills * 2 > args.length) return false;
+
+            Resolve(staged, stagedPainted, source >= 0 ? source : sector, leds, edit);
+            for (int f = 0; f < fills; f++) {
+                int start = args[position] >>> 8, end = args[position] & 0xFF;
+                if (start >= end || end > leds) return false;
+                Arrays.fill(edit, start, end, args[position + 1]);
+                position += 2;
+            }
+            commit(sector, edit);
+        }
+        return position == args.length;
+    }
+
+    private void commit(int sector, int[] edit){
+        System.arraycopy(edit, 0, staged, sector * leds, leds);
+        stagedPainted.set(sector);
+    }
+
+    private void error(Delivery request, String reason){
+        errors++;
+        System.err.println("Blade simulator: " + request.command() + " " + Arrays.toString(request.args())
+                + " from client " + request.client() + ": " + reason);
+    }
+
+    // The LEDs a sector shows: its own if painted, else those of the nearest painted sector before it, else black
+    private static void Resolve(int[] frame, BitSet painted, int sector, int leds, int[] out){
+        int source = painted.previousSetBit(sector);
+        if (source < 0) Arrays.fill(out, 0);
+        else System.arraycopy(frame, source * leds, out, 0, leds);
+    }
+
+    // Waits until count frames have been committed in all; false on timeout
+    public synchronized boolean awaitFrames(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (frames.size() < count) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    // The shown frame as the blade displays it, unpainted sectors repeating the one before
+    public synchronized PolarFrame shown(){
+        PolarFrame frame = new PolarFrame(sectors, leds);
+        int[] sector = new int[leds];
+        for (int i = 0; i < sectors; i++) {
+            Resolve(shown, shownPainted, i, leds, sector);
+            System.arraycopy(sector, 0, frame.data(), frame.index(i, 0), leds);
+        }
+        return frame;
+    }
+
+    // Sectors of the shown frame that differ from expected
+    public int verify(PolarFrame expected){
+        PolarFrame frame = shown();
+        int mismatched = 0;
+        for (int i = 0; i < sectors; i++) {
+            int offset = frame.index(i, 0);
+            if (!Arrays.equals(frame.data(), offset, offset + leds, expected.data(), expected.index(i, 0), expected.index(i, 0) + leds)) {
+                mismatched++;
+            }
+        }
+        return mismatched;
+    }
+
+    public synchronized List<FrameStats> frames(){
+        return new ArrayList<>(frames);
+    }
+
+    public synchronized long requests(){
+        return requests;
+    }
+
+    public synchronized long bytes(){
+        return bytes;
+    }
+
+    public synchronized long errors(){
+        return errors;
+    }
+
+    public synchronized int anim(){
+        return anim;
+    }
+
+    public synchronized int mult(){
+        return mult;
+    }
+
+    public synchronized int throttle(){
+        return throttle;
+    }
+
+    public synchronized boolean started(){
+        return started;
+    }
+
+    public void close(){
+        device.interrupt();
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length == 0) {
+            System.err.println("Usage: BladeSimulator <image> [-x xOff] [-y yOff] [-s scaling] [--bandwidth bytes/s] [--latency ms] "
+                    + "[--frames N] [--nudge] [--full] [--bulk] [--window N] [--copy] [--frame-barrier]");
+            System.err.println("       BladeSimulator --animation <file.ria> [--bandwidth bytes/s] [--latency ms] [--frames N] [--frame-barrier]");
+            System.exit(2);
+        }
+
+        String input = null, animation = null;
+        int xOff = 0, yOff = 0, scaling = 0, count = 0;
+        long bandwidth = 0, latency = 0;
+        boolean nudge = false, full = false, frameBarrier = false;
+        SectoredCircle circle = new SectoredCircle();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-x" -> xOff = Integer.parseInt(args[++i]);
+                case "-y" -> yOff = Integer.parseInt(args[++i]);
+                case "-s" -> scaling = Integer.parseInt(args[++i]);
+                case "--bandwidth" -> bandwidth = Long.parseLong(args[++i]);
+                case "--latency" -> latency = (long) (Double.parseDouble(args[++i]) * 1e6);
+                case "--frames" -> count = Integer.parseInt(args[++i]);
+                case "--nudge" -> nudge = true;
+                case "--full" -> full = true;
+                case "--bulk" -> circle.setBulkUpload(true);
+                case "--window" -> circle.setUploadWindow(Integer.parseInt(args[++i]));
+                case "--copy" -> circle.setCopyCommand(true);
+                case "--frame-barrier" -> frameBarrier = true;
+                case "--animation" -> animation = args[++i];
+                default -> input = args[i];
+            }
+        }
+
+        try {
+            BladeSimulator blade = new BladeSimulator(SectoredCircle.SECTORS, SectoredCircle.NUM_LEDS, bandwidth, latency, frameBarrier);
+            int failed = animation != null
+                    ? Animate(blade, AnimationEncoder.Reader.Open(Paths.get(animation)), count)
+                    : Sample(blade, circle, input, xOff, yOff, scaling, Math.max(count, 1), nudge, full);
+
+            blade.close();
+            System.exit(failed == 0 && blade.errors() == 0 ? 0 : 1);
+        } catch (IOException | InterruptedException | IllegalArgumentException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // Samples, sends and verifies count frames of the image; returns how many did not verify
+    private static int Sample(BladeSimulator blade, SectoredCircle circle, String input, int xOff, int yOff, int scaling,
+                              int count, boolean nudge, boolean full) throws IOException, InterruptedException {
+        BufferedImage img = ImageIO.read(new File(input));
+        if (img == null) throw new IOException("Unreadable image " + input);
+
+        circle.setImage(img);
+        circle.setYoffset(yOff);
+        circle.setScaling(scaling);
+
+        int failed = 0;
+        for (int frame = 0; frame < count; frame++) {
+            circle.setXoffset(nudge ? xOff + frame % 2 : xOff);
+            circle.sample();
+            if (full) circle.refreshDisplay();
+
+            blade.addRequest("anim", Main.DISPLAY_ID, 3);
+            circle.display(blade);
+            if (!blade.report(frame, circle.getFrame())) failed++;
+        }
+        return failed;
+    }
+
+    // Sends the animation's frames, or its first count, as AnimationPlayer does and verifies each; returns how many did not
+    private static int Animate(BladeSimulator blade, AnimationEncoder.Reader reader, int count) throws IOException, InterruptedException {
+        if (reader.sectors() != SectoredCircle.SECTORS || reader.leds() != SectoredCircle.NUM_LEDS) {
+            throw new IOException("Animation is " + reader.sectors() + "x" + reader.leds() + ", expected "
+                    + SectoredCircle.SECTORS + "x" + SectoredCircle.NUM_LEDS);
+        }
+
+        PolarFrame current = new PolarFrame(reader.sectors(), reader.leds());
+        PolarFrame sent = null;
+        int failed = 0;
+
+        blade.addRequest("anim", Main.DISPLAY_ID, 3);
+        for (int frame = 0; reader.hasNext() && (count == 0 || frame < count); frame++) {
+            AnimationEncoder.Apply(reader.next(), current);
+            SectoredCircle.DisplayChanges(blade, sent, current);
+            if (!blade.report(frame, current)) failed++;
+
+            if (sent == null) sent = new PolarFrame(current);
+            else sent.copyFrom(current);
+        }
+        return failed;
+    }
+
+    // Waits for the frame to be committed, prints its stats and whether the blade shows expected
+    private boolean report(int frame, PolarFrame expected) throws IOException, InterruptedException {
+        if (!awaitFrames(frame + 1, 60, TimeUnit.SECONDS)) throw new IOException("Frame " + frame + " was never committed");
+
+        FrameStats stats = frames().get(frame);
+        int mismatched = verify(expected);
+        System.out.println(String.format("Frame %d: %d requests, %d bytes, applied in %.2f ms (%.2f MB/s), %s",
+                frame, stats.requests(), stats.bytes(), stats.applyNanos() / 1e6, stats.megabytesPerSecond(),
+                mismatched == 0 ? "verified" : mismatched + " sectors differ"));
+        return mismatched == 0;
+    }
+}
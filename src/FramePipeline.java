@@ -0,0 +1,181 @@
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ Runs the sample to transmit chain of a SectoredCircle on a background thread.
+
+ <P>Only one job runs at a time. Submitting a new job makes the running one stale: it stops at
+ the next stage boundary, and a stale job never reaches the server.
+
+ <P>The stages rewrite the circle's frames in place. The EDT only paints copies, which the circle
+ takes when the newest job finishes, so a stale job's half-written frames are never shown.
+ */
+public class FramePipeline {
+
+    public enum Stage { SAMPLE, EXPAND, DIFF, COMPILE, ENCODE, TRANSMIT }
+
+    public interface Listener {
+        // Called on the EDT as each stage starts
+        void progress(Stage stage, int completed, int total);
+
+        // Called on the EDT once the last requested stage of the newest job is done
+        void finished(Stage last);
+
+        // Called on the EDT once the newest job has compiled its sectors
+        default void compiled(SectoredCircle.CompileStats stats) {}
+
+        // Called on the EDT when a stage of the newest job throws
+        default void failed(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // A job either samples frame or, when work is set, runs work in its place
+    private record Job(long generation, BufferedImage frame, Runnable work, Stage last, Runnable onDone) {}
+
+    private final SectoredCircle circle;
+    private final Lock serverLock;
+    private final Runnable transmit;
+    private final Listener listener;
+
+    private final ExecutorService executor;
+    private final AtomicLong generation = new AtomicLong();
+
+    private Job pending;
+    private Future<?> running;
+
+    public FramePipeline(SectoredCircle circle, Lock serverLock, Runnable transmit, Listener listener){
+        this.circle = circle;
+        this.serverLock = serverLock;
+        this.transmit = transmit;
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "frame-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Snapshots the panel and queues a job up to and including last; call on the EDT
+    public synchronized void submit(Stage last, Runnable onDone){
+        if (running != null) running.cancel(false);
+
+        Job job = new Job(generation.incrementAndGet(), circle.renderFrame(), null, last, onDone);
+        pending = job;
+        running = executor.submit(() -> run(job));
+    }
+
+    // Queues work that rewrites the circle's frames, e.g. previewing a pre-baked frame, in place of a sample;
+    // it waits for any running stage, so it never races the pipeline. Call on the EDT
+    public synchronized void submit(Runnable work, Runnable onDone){
+        if (running != null) running.cancel(false);
+
+        Job job = new Job(generation.incrementAndGet(), null, work, Stage.COMPILE, onDone);
+        pending = job;
+        running = executor.submit(() -> run(job));
+    }
+
+    // Restarts an unfinished job against the current panel state, e.g. after a slider moved
+    public synchronized void supersede(){
+        if (pending != null && pending.work() == null && running != null && !running.isDone()) {
+            submit(pending.last(), pending.onDone());
+        }
+    }
+
+    public synchronized void cancel(){
+        generation.incrementAndGet();
+        if (running != null) running.cancel(false);
+        pending = null;
+    }
+
+    public boolean isBusy(){
+        Future<?> running = this.running;
+        return running != null && !running.isDone();
+    }
+
+    private void run(Job job){
+        try {
+            if (job.work() != null) {
+                checkCurrent(job);
+                job.work().run();
+                finish(job);
+                return;
+            }
+
+            stage(job, Stage.SAMPLE);
+            circle.sampleImage(job.frame());
+
+            if (!stage(job, Stage.EXPAND)) return;
+            circle.expandSampling();
+
+            if (!stage(job, Stage.DIFF)) return;
+            circle.sampleDifferences();
+            circle.sampleDerivative(true);
+            circle.sampleTransform(true);
+            circle.sampleITransform(true);
+
+            if (!stage(job, Stage.COMPILE)) return;
+            SectoredCircle.CompileStats stats = circle.compileSamples();
+            SwingUtilities.invokeLater(() -> {
+                if (job.generation() == generation.get()) listener.compiled(stats);
+            });
+
+            if (!stage(job, Stage.ENCODE)) return;
+            circle.saveFiles(job.frame());
+
+            if (!stage(job, Stage.TRANSMIT)) return;
+            serverLock.lock();
+            try {
+                // Checked under the lock so a newer job cannot be overtaken by this one
+                checkCurrent(job);
+                transmit.run();
+            } finally {
+                serverLock.unlock();
+            }
+
+            finish(job);
+        } catch (CancellationException e) {
+            // Superseded by a newer job
+        } catch (Exception e) {
+            SwingUtilities.invokeLater(() -> {
+                if (job.generation() == generation.get()) listener.failed(e);
+            });
+        }
+    }
+
+    // Returns false once the job has run every stage it asked for
+    private boolean stage(Job job, Stage stage){
+        if (stage.ordinal() > job.last().ordinal()) {
+            finish(job);
+            return false;
+        }
+
+        checkCurrent(job);
+
+        int total = job.last().ordinal() + 1;
+        SwingUtilities.invokeLater(() -> {
+            if (job.generation() == generation.get()) listener.progress(stage, stage.ordinal(), total);
+        });
+        return true;
+    }
+
+    private void finish(Job job){
+        checkCurrent(job);
+        SwingUtilities.invokeLater(() -> {
+            if (job.generation() != generation.get()) return;
+            circle.publishFrame();
+            if (job.onDone() != null) job.onDone().run();
+            listener.finished(job.last());
+        });
+    }
+
+    private void checkCurrent(Job job){
+        if (job.generation() != generation.get()) throw new CancellationException("Frame superseded");
+    }
+}
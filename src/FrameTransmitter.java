@@ -0,0 +1,270 @@
+import util.PolarFrame;
+import util.SectorCompiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ Uploads compiled sectors to the blades, either one request per command or in ar-bulk packets.
+
+ <P>Per command, each sector is a stage-ar, an optional copy-ar, one led or leds request per fill and a
+ commit-ar. In bulk, each client's sectors are serialized into ar-bulk requests of at most
+ MAX_BULK_ARGUMENTS arguments; the blade stages and commits each sector of a packet in order, so a
+ copy from an earlier sector of the same blade still sees it painted. A packet is
+
+   sectors           1 argument, the number of sectors that follow
+   each sector       sector &lt;&lt; 20 | (source + 1) &lt;&lt; 8 | fills, source -1 when nothing is copied
+   each fill         start &lt;&lt; 8 | end, end exclusive, then the colour
+
+ <P>Either way the frame is framed by stage-fr and commit-fr, which go to the first client only. Each
+ client has its own link, so handing requests over in order does not get them applied in order:
+ sectors are only sent once the sink reports stage-fr applied, and commit-fr once it reports every
+ client's sectors applied (RequestSink.awaitApplied). With an upload window, requests go through an
+ UploadQueue so every client's sectors upload concurrently, each client's keeping their stage-ar to
+ commit-ar order. send returns when the whole frame is with the sink. Without a window, requests are
+ added on the calling thread in sector order.
+
+ <P>Sends are incremental. A shadow per client holds a content hash of every sector the blade was last
+ given, and only sectors whose hash changed are sent. A sector the blade holds that is no longer compiled
+ (it now repeats the one before) is overwritten with its plain runs, so the blade never keeps a stale
+ sector. refresh forgets the shadows, and the next send uploads every compiled sector; so does a send
+ to a different sink or one that failed part way. A request the sink throws on fails the send, also on
+ the windowed path where UploadQueue.await reports it, and leaves the shadows empty.
+
+ <P>Every send records its requests, estimated bytes and upload time next to what the per-command path
+ would have needed, and prints them.
+ */
+public class FrameTransmitter {
+
+    public static final int MAX_BULK_ARGUMENTS = 1024;
+
+    private boolean bulk;
+    private int window;
+    private UploadQueue queue;
+
+    // Client, sector, hash of the LEDs the blade was last sent for it
+    private final Map<Byte, Map<Integer, Long>> shadows = new HashMap<>();
+    private RequestSink shadowed;
+    private volatile boolean stale;
+    private SectorCompiler runs;
+
+    private int requests, bytes, commandRequests, commandBytes;
+    private long nanos;
+
+    public FrameTransmitter(boolean bulk){
+        this.bulk = bulk;
+    }
+
+    public void setBulk(boolean bulk){
+        this.bulk = bulk;
+    }
+
+    public boolean bulk(){
+        return bulk;
+    }
+
+    // Requests each client may have queued ahead of the sink; 0 sends serially on the calling thread
+    public void setWindow(int window){
+        if (window < 0) throw new IllegalArgumentException("Window must not be negative, got " + window);
+
+        this.window = window;
+        if (queue != null) queue.close();
+        queue = null;
+    }
+
+    public int window(){
+        return window;
+    }
+
+    // Forgets what the blades hold, so the next send uploads every compiled sector
+    public void refresh(){
+        stale = true;
+    }
+
+    // Sends the sectors of frame that changed since the last send, sectors keyed by their index; programs come from SectorCompiler
+    public synchronized void send(RequestSink sink, Map<Integer, SectorCompiler.Program> compiled, PolarFrame frame, byte[] clients){
+        long start = System.nanoTime();
+        requests = bytes = commandRequests = commandBytes = 0;
+
+        if (window > 0 && (queue == null || queue.sink() != sink)) {
+            if (queue != null) queue.close();
+            queue = new UploadQueue(sink, window);
+        }
+
+        if (sink != shadowed || stale) {
+            shadows.clear();
+            shadowed = sink;
+            stale = false;
+        }
+        boolean full = shadows.isEmpty();
+        Map<Integer, SectorCompiler.Program> changed = changes(compiled, frame, clients);
+
+        // Until the frame is committed the blades are in an unknown state; a send that throws leaves it so
+        Map<Byte, Map<Integer, Long>> previous = new HashMap<>(shadows);
+        shadows.clear();
+
+        int sectors = frame.sectors();
+        try {
+            request(sink, "stage-fr", clients[0], sectors);
+            commandRequests++;
+            commandBytes += SectorCompiler.RequestBytes(1);
+            if (window > 0) queue.await(clients[0]);
+            sink.awaitApplied(clients[0]);
+
+            if (bulk) sendBulk(sink, changed, sectors, clients);
+            else sendCommands(sink, changed, sectors, clients);
+
+            if (window > 0) queue.await(clients);
+            sink.awaitApplied(clients);
+            request(sink, "commit-fr", clients[0], new ArrayList<>());
+            commandRequests++;
+            commandBytes += SectorCompiler.RequestBytes(0);
+            if (window > 0) queue.await(clients[0]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        shadows.putAll(previous);
+        for (int sector : changed.keySet()) {
+            shadow(clients[sector % clients.length]).put(sector, Hash(frame, sector));
+        }
+
+        nanos = System.nanoTime() - start;
+        System.out.println(String.format("Uploaded %d of %d sectors%s %s %s in %d requests, ~%d bytes, %.2f ms (per command: %d requests, ~%d bytes)",
+                changed.size(), compiled.size(), full ? " (full refresh)" : "", bulk ? "in bulk" : "per command",
+                window > 0 ? "to " + clients.length + " clients concurrently" : "serially",
+                requests, bytes, nanos / 1e6, commandRequests, commandBytes));
+    }
+
+    // Compiled sectors the blades do not already show, and held sectors that are no longer compiled
+    private Map<Integer, SectorCompiler.Program> changes(Map<Integer, SectorCompiler.Program> compiled, PolarFrame frame, byte[] clients){
+        Map<Integer, SectorCompiler.Program> changed = new HashMap<>();
+        for (Map.Entry<Integer, SectorCompiler.Program> entry : compiled.entrySet()) {
+            int sector = entry.getKey();
+            Long held = shadow(clients[sector % clients.length]).get(sector);
+            if (held == null || held != Hash(frame, sector)) changed.put(sector, entry.getValue());
+        }
+
+        if (runs == null || runs.leds() != frame.leds()) runs = new SectorCompiler(frame.leds(), false);
+        for (Map<Integer, Long> shadow : shadows.values()) {
+            for (Map.Entry<Integer, Long> entry : shadow.entrySet()) {
+                int sector = entry.getKey();
+                if (!compiled.containsKey(sector) && entry.getValue() != Hash(frame, sector)) {
+                    changed.put(sector, runs.runs(frame, sector));
+                }
+            }
+        }
+        return changed;
+    }
+
+    private Map<Integer, Long> shadow(byte client){
+        return shadows.computeIfAbsent(client, c -> new HashMap<>());
+    }
+
+    private static long Hash(PolarFrame frame, int sector){
+        int[] data = frame.data();
+        int offset = frame.index(sector, 0);
+
+        long hash = frame.leds();
+        for (int i = 0; i < frame.leds(); i++) {
+            hash = (hash ^ data[offset + i]) * 0x100000001B3L;
+        }
+        return hash ^ (hash >>> 29);
+    }
+
+    private void sendCommands(RequestSink sink, Map<Integer, SectorCompiler.Program> compiled, int sectors, byte[] clients) throws InterruptedException {
+        for (int sector = 0; sector < sectors; sector++) {
+            SectorCompiler.Program program = compiled.get(sector);
+            if (program == null) continue;
+
+            byte id = clients[sector % clients.length];
+
+            request(sink, "stage-ar", id, sector);
+
+            // Copies come from earlier sectors of the same blade, already committed above
+            if (program.source() >= 0)
+                request(sink, "copy-ar", id, program.source());
+
+            int[] ops = program.ops();
+            for (int op = 0; op < ops.length; op += 3) {
+                if (ops[op + 1] - ops[op] > 1)
+                    request(sink, "leds", id, ops[op], ops[op + 1], ops[op + 2]);
+                else
+                    request(sink, "led", id, ops[op], ops[op + 2]);
+            }
+
+            request(sink, "commit-ar", id, new ArrayList<>());
+        }
+        commandRequests = requests;
+        commandBytes = bytes;
+    }
+
+    private void sendBulk(RequestSink sink, Map<Integer, SectorCompiler.Program> compiled, int sectors, byte[] clients) throws InterruptedException {
+        ArrayList<ArrayList<Integer>> packets = new ArrayList<>();
+        for (int i = 0; i < clients.length; i++) packets.add(Packet());
+
+        for (int sector = 0; sector < sectors; sector++) {
+            SectorCompiler.Program program = compiled.get(sector);
+            if (program == null) continue;
+
+            int client = sector % clients.length;
+            int[] ops = program.ops();
+
+            // Sectors are never split across packets
+            ArrayList<Integer> packet = packets.get(client);
+            if (packet.size() > 1 && packet.size() + 1 + ops.length / 3 * 2 > MAX_BULK_ARGUMENTS) {
+                request(sink, "ar-bulk", clients[client], packet);
+                packet = Packet();
+                packets.set(client, packet);
+            }
+
+            packet.set(0, packet.get(0) + 1);
+            packet.add(sector << 20 | (program.source() + 1) << 8 | program.fills());
+            for (int op = 0; op < ops.length; op += 3) {
+                packet.add(ops[op] << 8 | ops[op + 1]);
+                packet.add(ops[op + 2]);
+            }
+
+            commandRequests += program.commands() + 2;
+            commandBytes += program.bytes() + SectorCompiler.RequestBytes(1) + SectorCompiler.RequestBytes(0);
+        }
+
+        for (int client = 0; client < clients.length; client++) {
+            if (packets.get(client).size() > 1) request(sink, "ar-bulk", clients[client], packets.get(client));
+        }
+    }
+
+    private static ArrayList<Integer> Packet(){
+        ArrayList<Integer> packet = new ArrayList<>(MAX_BULK_ARGUMENTS);
+        packet.add(0);
+        return packet;
+    }
+
+    private void request(RequestSink sink, String command, byte id, int... args) throws InterruptedException {
+        if (window > 0) queue.add(id, command, args);
+        else sink.addRequest(command, id, args);
+        requests++;
+        bytes += SectorCompiler.RequestBytes(args.length);
+    }
+
+    private void request(RequestSink sink, String command, byte id, ArrayList<Integer> args) throws InterruptedException {
+        if (window > 0) queue.add(id, command, args);
+        else sink.addRequest(command, id, args);
+        requests++;
+        bytes += SectorCompiler.RequestBytes(args.size());
+    }
+
+    public int requests(){
+        return requests;
+    }
+
+    public int bytes(){
+        return bytes;
+    }
+
+    public long nanos(){
+        return nanos;
+    }
+}
@@ -1,4 +1,7 @@
 import server.ESPControlServer;
+import util.AnimationEncoder;
+import util.ColorQuantizer;
+import util.RieFile;
 
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
@@ -8,6 +11,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -29,8 +33,12 @@ public final class Main {
     private JFrame frame;
 
     private SectoredCircle circle;
+    private FramePipeline pipeline;
+    private AnimationPlayer player;
 
     private ESPControlServer server;
+    private RequestSink sink;
+    private ResultChannel results;
     private Lock serverLock;
 
     boolean started = false;
@@ -39,6 +47,16 @@ public final class Main {
      * Launch the application.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--simulate")) {
+            BladeSimulator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         EventQueue.invokeLater(new Runnable() {
             public void run() {
                 try {
@@ -64,26 +82,25 @@ public final class Main {
         this.serverLock = new ReentrantLock();
         try{
             server = new ESPControlServer();
+            sink = RequestSink.Of(server);
 
             Thread service = new Thread(server);
             service.start();
 
-            Thread readService = new Thread(() -> {
-                System.out.println("Starting Read Service");
-                while(true) {
-                    serverLock.lock();
-                    String result = server.readResult(DISPLAY_ID);
-                    serverLock.unlock();
-                    if(result != null)
-                        System.out.println(result);
-                }
-            });
-            readService.start();
+            results = new ResultChannel(server, DISPLAY_ID);
+            results.addListener((client, result) -> System.out.println(result));
+            results.start();
         } catch (Exception e){
             e.printStackTrace();
         }
     }
 
+    // Reports e in a dialog; call on the EDT
+    private void showError(String title, Exception e){
+        e.printStackTrace();
+        JOptionPane.showMessageDialog(frame, e.getMessage(), title, JOptionPane.ERROR_MESSAGE);
+    }
+
     /**
      * Initialize the contents of the frame.
      */
@@ -96,6 +113,36 @@ public final class Main {
 
         circle = new SectoredCircle();
 
+        JLabel statusLabel = new JLabel("Idle");
+
+        pipeline = new FramePipeline(circle, serverLock, () -> {
+            sink.addRequest("anim", Main.DISPLAY_ID, 3);
+            circle.display(sink);
+            results.wake();
+        }, new FramePipeline.Listener() {
+            @Override
+            public void progress(FramePipeline.Stage stage, int completed, int total) {
+                statusLabel.setText(stage + " (" + (completed + 1) + "/" + total + ")");
+            }
+
+            @Override
+            public void finished(FramePipeline.Stage last) {
+                statusLabel.setText("Done");
+                circle.repaint();
+            }
+
+            @Override
+            public void compiled(SectoredCircle.CompileStats stats) {
+                statusLabel.setToolTipText(stats.toString());
+            }
+
+            @Override
+            public void failed(Exception e) {
+                statusLabel.setText("Failed");
+                showError("Frame failed", e);
+            }
+        });
+
         circle.addMouseMotionListener(new MouseMotionListener() {
             @Override
             public void mouseDragged(MouseEvent e) {
@@ -155,10 +202,24 @@ public final class Main {
                 File file = fileChooser.getSelectedFile();
                 loadButton.setText(file.getName());
                 try {
-                    circle.setImage(ImageIO.read(file));
+                    if (player != null) {
+                        player.stop();
+                        player = null;
+                    }
+
+                    if (file.getName().endsWith(".ria")) {
+                        pipeline.cancel();
+                        player = new AnimationPlayer(AnimationEncoder.Reader.Open(file.toPath()), circle, sink, serverLock);
+                        player.start();
+                    } else if (file.getName().endsWith(".rie")) {
+                        RieFile rie = RieFile.Open(file.toPath());
+                        pipeline.submit(() -> circle.previewFrame(rie), circle::showPreview);
+                    } else {
+                        circle.setImage(ImageIO.read(file));
+                    }
                     circle.repaint();
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
+                } catch (IOException | IllegalArgumentException ex) {
+                    showError("Could not load " + file.getName(), ex);
                 }
             }else{
                 loadButton.setText("Load");
@@ -171,9 +232,10 @@ public final class Main {
         JButton sampleButton = new JButton("Toggle Sampling");
         sampleButton.addActionListener(e -> {
 
-            circle.sample();
-            circle.toggleSampleView();
-            circle.repaint();
+            pipeline.submit(FramePipeline.Stage.ENCODE, () -> {
+                circle.toggleSampleView();
+                circle.repaint();
+            });
 
         });
 
@@ -259,10 +321,24 @@ public final class Main {
         exportBox.setBounds(1000, 120, SectoredCircle.PANEL_WIDTH / 4, 50);
         frame.getContentPane().add(exportBox);
 
+        // Palette size for the next sample; LAB k-means, seeded from the previous frame's palette
+        final String[] colourOptions = {"All Colours", "256 Colours", "64 Colours", "16 Colours"};
+        JComboBox<String> colourBox = new JComboBox<>(colourOptions);
+        colourBox.setRenderer(listRenderer);
+        colourBox.addActionListener(e -> {
+            String selected = colourBox.getItemAt(colourBox.getSelectedIndex());
+            int paletteSize = selected.startsWith("All") ? 0 : Integer.parseInt(selected.split(" ")[0]);
+            circle.setQuantization(paletteSize, ColorQuantizer.Metric.LAB, true);
+            pipeline.supersede();
+        });
+
+        colourBox.setBounds(1000, 705, SectoredCircle.PANEL_WIDTH / 4, 40);
+        frame.getContentPane().add(colourBox);
+
         JButton toggleStart = new JButton("Start");
         toggleStart.addActionListener(e -> {
             this.serverLock.lock();
-            server.addRequest(started ? "stop" : "start", Main.DISPLAY_ID, new ArrayList<Integer>());
+            sink.addRequest(started ? "stop" : "start", Main.DISPLAY_ID, new ArrayList<Integer>());
             this.serverLock.unlock();
             started = !started;
             toggleStart.setText(started ? "Stop" : "Start");
@@ -273,13 +349,11 @@ public final class Main {
 
 
         JButton displayButton = new JButton("Display");
+        displayButton.setToolTipText("Sends the sectors that changed; shift-click resends every sector");
         displayButton.addActionListener(e -> {
 
-            circle.sample();
-            this.serverLock.lock();
-            server.addRequest("anim", Main.DISPLAY_ID, 3);
-            circle.display(server);
-            this.serverLock.unlock();
+            if ((e.getModifiers() & ActionEvent.SHIFT_MASK) != 0) circle.refreshDisplay();
+            pipeline.submit(FramePipeline.Stage.TRANSMIT, null);
 
         });
 
@@ -290,7 +364,7 @@ public final class Main {
         random.addActionListener(e -> {
 
             this.serverLock.lock();
-            server.addRequest("anim", Main.DISPLAY_ID, (int) (Math.random() * 6));
+            sink.addRequest("anim", Main.DISPLAY_ID, (int) (Math.random() * 6));
             this.serverLock.unlock();
 
         });
@@ -302,7 +376,7 @@ public final class Main {
         uploaded.addActionListener(e -> {
 
             this.serverLock.lock();
-            server.addRequest("anim", Main.DISPLAY_ID, 6);
+            sink.addRequest("anim", Main.DISPLAY_ID, 6);
             this.serverLock.unlock();
 
         });
@@ -361,6 +435,7 @@ public final class Main {
                 circle.setXoffset(xSlider.getValue());
                 xlabel.setText("X Offset: " + xSlider.getValue());
                 circle.repaint();
+                pipeline.supersede();
             }
         });
 
@@ -370,6 +445,7 @@ public final class Main {
                 circle.setYoffset(-ySlider.getValue());
                 ylabel.setText("Y Offset: " + ySlider.getValue());
                 circle.repaint();
+                pipeline.supersede();
             }
         });
 
@@ -379,6 +455,7 @@ public final class Main {
                 circle.setScaling(scaleSlider.getValue());
                 scalelabel.setText("Scale: " + scaleSlider.getValue());
                 circle.repaint();
+                pipeline.supersede();
             }
         });
 
@@ -386,7 +463,7 @@ public final class Main {
             @Override
             public void stateChanged(ChangeEvent e) {
                 serverLock.lock();
-                server.addRequest("mult", Main.DISPLAY_ID, multSlider.getValue());
+                sink.addRequest("mult", Main.DISPLAY_ID, multSlider.getValue());
                 serverLock.unlock();
                 multlabel.setText("Multiplier: " + multSlider.getValue());
             }
@@ -396,7 +473,7 @@ public final class Main {
             @Override
             public void stateChanged(ChangeEvent e) {
                 serverLock.lock();
-                server.addRequest("throttle", Main.DISPLAY_ID, throttleSlider.getValue());
+                sink.addRequest("throttle", Main.DISPLAY_ID, throttleSlider.getValue());
                 serverLock.unlock();
                 throttlelabel.setText("Throttle: " + throttleSlider.getValue());
             }
@@ -413,6 +490,7 @@ public final class Main {
         scalelabel.setBounds(310, 850, 100, 50);
         multlabel.setBounds(460, 850, 100, 50);
         throttlelabel.setBounds(610, 850, 100, 50);
+        statusLabel.setBounds(760, 850, 230, 50);
 
         frame.getContentPane().add(xSlider);
         frame.getContentPane().add(ySlider);
@@ -425,6 +503,7 @@ public final class Main {
         frame.getContentPane().add(scalelabel);
         frame.getContentPane().add(multlabel);
         frame.getContentPane().add(throttlelabel);
+        frame.getContentPane().add(statusLabel);
 
     }
 
@@ -435,6 +514,8 @@ public final class Main {
         public final static String TIFF = "tiff";
         public final static String TIF = "tif";
         public final static String PNG = "png";
+        public final static String RIE = "rie";
+        public final static String RIA = "ria";
 
         @Override
         public boolean accept(File f) {
@@ -449,7 +530,9 @@ public final class Main {
                         extension.equals(GIF) ||
                         extension.equals(JPEG) ||
                         extension.equals(JPG) ||
-                        extension.equals(PNG)) {
+                        extension.equals(PNG) ||
+                        extension.equals(RIE) ||
+                        extension.equals(RIA)) {
                     return true;
                 } else {
                     return false;
@@ -460,7 +543,7 @@ public final class Main {
 
         @Override
         public String getDescription() {
-            return "Image Only";
+            return "Images, .rie frames and .ria animations";
         }
 
         String getExtension(File f) {
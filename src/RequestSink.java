@@ -0,0 +1,39 @@
+import server.ESPControlServer;
+
+import java.util.ArrayList;
+
+/**
+ Where blade requests go: the ESPControlServer when a blade is connected, or a BladeSimulator in its
+ place. Both addRequest shapes of the server are kept, since the blades may tell them apart.
+ */
+public interface RequestSink {
+
+    void addRequest(String command, byte client, int... args);
+
+    void addRequest(String command, byte client, ArrayList<Integer> args);
+
+    // Waits until the blades have applied every request added so far for clients. The server gets no
+    // acknowledgement of requests, so a sink that cannot tell returns at once; over a server the frame
+    // order across clients then rests on its links delivering in order, which nothing here verifies
+    default void awaitApplied(byte... clients) throws InterruptedException {}
+
+    // Calls are serialized on the server's monitor, as ResultChannel's reads are, since nothing says the
+    // server may be called from several threads at once; UploadQueue's senders still queue side by side
+    static RequestSink Of(ESPControlServer server){
+        return new RequestSink() {
+            @Override
+            public void addRequest(String command, byte client, int... args) {
+                synchronized (server) {
+                    server.addRequest(command, client, args);
+                }
+            }
+
+            @Override
+            public void addRequest(String command, byte client, ArrayList<Integer> args) {
+                synchronized (server) {
+                    server.addRequest(command, client, args);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,151 @@
+import server.ESPControlServer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ Reads results off the server for a set of client ids on one thread and hands them out per client.
+
+ <P>The server only offers a non-blocking readResult, so something has to poll it. This thread spins
+ for SPIN_READS empty reads, then parks for a doubling interval up to MAX_PARK_NANOS, and drops back to
+ spinning as soon as a result arrives; an idle display costs next to no CPU. wake cuts a park short,
+ for callers that have just sent a request and expect an answer.
+
+ <P>The reader never takes the server lock, so it does not wait out whole frame uploads. Nothing says
+ the server is safe for concurrent calls, so, like RequestSink.Of, each readResult holds the server's
+ monitor; a poll is short and the reader parks between them, so writers barely wait behind it.
+
+ <P>Consumers block on take or poll for a client, or register a Listener called on the reader thread.
+ Each client keeps the newest QUEUE_CAPACITY results; older ones are dropped when nobody takes them.
+ */
+public class ResultChannel {
+
+    public interface Listener {
+        // Called on the reader thread for every result, before it is queued
+        void result(byte client, String result);
+    }
+
+    public static final int SPIN_READS = 64;
+    public static final long MIN_PARK_NANOS = 50_000, MAX_PARK_NANOS = 20_000_000;
+    public static final int QUEUE_CAPACITY = 1024;
+
+    private final ESPControlServer server;
+    private final byte[] clients;
+    private final Map<Byte, BlockingQueue<String>> queues = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean woken;
+    // The current reader; a reader exits as soon as it is no longer this thread
+    private volatile Thread thread;
+
+    public ResultChannel(ESPControlServer server, byte... clients){
+        this.server = server;
+        this.clients = clients.clone();
+        for (byte client : clients) queues.put(client, new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+    }
+
+    public void addListener(Listener listener){
+        listeners.add(listener);
+    }
+
+    public synchronized void start(){
+        if (thread != null) return;
+
+        thread = new Thread(this::read, "result-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Returns once the reader has stopped, so a later start never polls alongside it
+    public synchronized void stop(){
+        Thread reader = thread;
+        if (reader == null) return;
+
+        thread = null;
+        LockSupport.unpark(reader);
+        if (reader != Thread.currentThread()) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Ends the reader's current park and restarts its back-off; never blocks
+    public void wake(){
+        woken = true;
+        Thread reader = thread;
+        if (reader != null) LockSupport.unpark(reader);
+    }
+
+    // Waits for the next result of client
+    public String take(byte client) throws InterruptedException {
+        return queue(client).take();
+    }
+
+    // Waits up to timeout for the next result of client, null if none came
+    public String poll(byte client, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue(client).poll(timeout, unit);
+    }
+
+    private BlockingQueue<String> queue(byte client){
+        BlockingQueue<String> queue = queues.get(client);
+        if (queue == null) throw new IllegalArgumentException("Client " + client + " is not read by this channel");
+        return queue;
+    }
+
+    private void read(){
+        Thread self = Thread.currentThread();
+        int idle = 0;
+        long park = MIN_PARK_NANOS;
+
+        while (thread == self) {
+            boolean received = false;
+            for (byte client : clients) {
+                String result;
+                while ((result = read(client)) != null) {
+                    deliver(client, result);
+                    received = true;
+                }
+            }
+
+            if (received || woken) {
+                woken = false;
+                idle = 0;
+                park = MIN_PARK_NANOS;
+            } else if (++idle > SPIN_READS) {
+                LockSupport.parkNanos(this, park);
+                park = Math.min(park * 2, MAX_PARK_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private String read(byte client){
+        synchronized (server) {
+            return server.readResult(client);
+        }
+    }
+
+    private void deliver(byte client, String result){
+        for (Listener listener : listeners) {
+            try {
+                listener.result(client, result);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Full queues drop their oldest result
+        BlockingQueue<String> queue = queues.get(client);
+        while (!queue.offer(result)) queue.poll();
+    }
+}
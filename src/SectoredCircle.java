@@ -1,7 +1,13 @@
-import javafx.util.Pair;
-import server.ESPControlServer;
+import util.AnimationEncoder;
+import util.ColorQuantizer;
 import util.EncodingUtils;
-import util.FourierUtils.Complex;
+import util.PlanarFrame;
+import util.PolarFrame;
+import util.PolarSpectrum;
+import util.RieFile;
+import util.SamplingPlan;
+import util.SectorCompiler;
+import util.SectorMatcher;
 import util.TransformationUtils;
 import util.TransformationUtils.*;
 
@@ -12,9 +18,16 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class SectoredCircle extends JPanel {
 
@@ -27,6 +40,7 @@ public class SectoredCircle extends JPanel {
     public static final int NUM_LEDS = 72;
 
     public static final int SAMPLE_RADIUS = 4;
+    public static final int MAX_SAMPLE_RADIUS = 16;
 
     public static final byte[] FRAME_CLIENTS = {0x02, 0x03};
     private static final int FT_SAMPLES = 12;
@@ -38,20 +52,45 @@ public class SectoredCircle extends JPanel {
 
     private boolean show = true, showImage = true, showSampling = false;
 
-    private HashMap<Integer, HashMap<Integer, Integer>> sampled;
-    private HashMap<Integer, ArrayList<Integer>> converted, full, ring, derivative, ringDerivative, integration, ringIntegration,
-                                                itransform, vrtransform, vitransform,
-                                                vrderTransform, vrderringTransform, viderTransform, viderringTransform,
-                                                iringTransform, vrringTransform, viringTransform,
-                                                iderTransform, iderRingTransform;
-
-    private HashMap<Integer, ArrayList<Integer>> displayed;
-    private HashMap<Integer, ArrayList<Triple<Complex, Complex, Complex>>> transform, ringTransform, derTransform, derRingTransform;
-    // Sector, <Sector to Copy, Changed values>
-    private HashMap<Integer, Pair<Integer, HashMap<Integer, Integer>>> copies;
-
-    // Sector, <Color, Start LED, End LED>
-    private HashMap<Integer, ArrayList<Triple<Integer, Integer, Integer>>> compiled;
+    private SamplingPlan.Filter samplingFilter = SamplingPlan.Filter.BOX;
+    private boolean arcRadii = false;
+
+    // Null samples on the calling thread; swapped under poolLock, and a pool swapped out while a job
+    // samples on it is shut down by that job once it is done
+    private ForkJoinPool samplingPool;
+    private final Map<ForkJoinPool, Integer> poolUsers = new IdentityHashMap<>();
+    private final Object poolLock = new Object();
+
+    // Null keeps every sampled colour
+    private volatile ColorQuantizer quantizer;
+
+    private PolarFrame sampled;
+    private PolarFrame full, derivative, ringDerivative, integration, ringIntegration,
+                        itransform, vrtransform, vitransform,
+                        vrderTransform, vrderringTransform, viderTransform, viderringTransform,
+                        iringTransform, vrringTransform, viringTransform,
+                        iderTransform, iderRingTransform;
+
+    // Sectors where at least one LED changed colour
+    private BitSet converted;
+
+    // Channel planes behind the packed views; scratchPlanes holds results on their way to a packed view
+    private PlanarFrame fullPlanes, derivativePlanes, ringDerivativePlanes, scratchPlanes;
+
+    // What paintComponent draws: EDT-owned copies of the selected frame and of converted, taken under frameLock
+    // by publishFrame and the show methods, so painting never reads a frame a pipeline stage is rewriting
+    private PolarFrame selected, displayed;
+    private BitSet shownConverted;
+    private final ReentrantLock frameLock = new ReentrantLock();
+    private PolarSpectrum transform, ringTransform, derTransform, derRingTransform;
+    // Per converted sector, the earlier sector to copy and the LEDs that then still differ
+    private SectorMatcher copies;
+
+    // Sector, the cheapest way to paint it
+    // Replaced wholesale by compileSamples so the EDT never iterates a half-built map
+    private volatile HashMap<Integer, SectorCompiler.Program> compiled;
+    private SectorCompiler compiler;
+    private final FrameTransmitter transmitter = new FrameTransmitter(false);
 
     private HashSet<Integer> colorMap;
 
@@ -60,34 +99,42 @@ public class SectoredCircle extends JPanel {
         this.setBounds(0,0, PANEL_WIDTH, PANEL_HEIGHT);
         xOff = 0;
         yOff = 0;
-        sampled = new HashMap<>();
-        converted = new HashMap<>();
-        full = new HashMap<>();
-        ring = new HashMap<>();
-        iringTransform = new HashMap<>();
-        vrringTransform = new HashMap<>();
-        viringTransform = new HashMap<>();
-        ringTransform = new HashMap<>();
-        copies = new HashMap<>();
+        sampled = new PolarFrame(SECTORS, NUM_LEDS);
+        converted = new BitSet(SECTORS);
+        full = new PolarFrame(SECTORS, NUM_LEDS);
+        iringTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        vrringTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        viringTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        ringTransform = new PolarSpectrum(SECTORS, NUM_LEDS);
+        copies = new SectorMatcher(SECTORS, NUM_LEDS, 0, 0, FRAME_CLIENTS.length);
         compiled = new HashMap<>();
-        transform = new HashMap<>();
-        itransform = new HashMap<>();
+        compiler = new SectorCompiler(NUM_LEDS, false);
+        transmitter.setWindow(UploadQueue.DEFAULT_WINDOW);
+        transform = new PolarSpectrum(SECTORS, NUM_LEDS);
+        itransform = new PolarFrame(SECTORS, NUM_LEDS);
         colorMap = new HashSet<>();
-        vrtransform = new HashMap<>();
-        vitransform = new HashMap<>();
-        derivative = new HashMap<>();
-        ringDerivative = new HashMap<>();
-        vrderTransform = new HashMap<>();
-        vrderringTransform = new HashMap<>();
-        viderTransform = new HashMap<>();
-        viderringTransform = new HashMap<>();
-        derTransform = new HashMap<>();
-        derRingTransform = new HashMap<>();
-        iderRingTransform = new HashMap<>();
-        iderTransform = new HashMap<>();
-        integration = new HashMap<>();
-        ringIntegration = new HashMap();
-        displayed = full;
+        vrtransform = new PolarFrame(SECTORS, NUM_LEDS);
+        vitransform = new PolarFrame(SECTORS, NUM_LEDS);
+        derivative = new PolarFrame(SECTORS, NUM_LEDS);
+        ringDerivative = new PolarFrame(SECTORS, NUM_LEDS);
+        vrderTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        vrderringTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        viderTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        viderringTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        derTransform = new PolarSpectrum(SECTORS, NUM_LEDS);
+        derRingTransform = new PolarSpectrum(SECTORS, NUM_LEDS);
+        iderRingTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        iderTransform = new PolarFrame(SECTORS, NUM_LEDS);
+        integration = new PolarFrame(SECTORS, NUM_LEDS);
+        ringIntegration = new PolarFrame(SECTORS, NUM_LEDS);
+        fullPlanes = new PlanarFrame(SECTORS, NUM_LEDS);
+        derivativePlanes = new PlanarFrame(SECTORS, NUM_LEDS);
+        ringDerivativePlanes = new PlanarFrame(SECTORS, NUM_LEDS);
+        scratchPlanes = new PlanarFrame(SECTORS, NUM_LEDS);
+        selected = full;
+        displayed = new PolarFrame(SECTORS, NUM_LEDS);
+        shownConverted = new BitSet(SECTORS);
+        setSamplingParallelism(Runtime.getRuntime().availableProcessors());
     }
 
     public void paintComponent(Graphics g) {
@@ -114,8 +161,6 @@ public class SectoredCircle extends JPanel {
             g2d.setColor(Color.BLACK);
             g2d.fillRect(0, 0, PANEL_WIDTH, PANEL_HEIGHT);
 
-            ArrayList<Integer> crgbs = null;
-
             int sector = 0;
 
             for (double i = 0; i < 2 * Math.PI; i += 2 * Math.PI / SECTORS) {
@@ -130,12 +175,10 @@ public class SectoredCircle extends JPanel {
 
                 double iterX = startX, iterY = startY;
 
-                boolean highlight = converted.containsKey(sector);
-
-                crgbs = displayed.get(sector);
+                boolean highlight = shownConverted.get(sector);
 
                 for (int j = 0; j < NUM_LEDS; j++) {
-                    int crgb = crgbs.get(j);
+                    int crgb = displayed.get(sector, j);
 
                     if (highlight && j == 71) {
                         g2d.setColor(Color.RED);
@@ -172,10 +215,14 @@ public class SectoredCircle extends JPanel {
                 g2d.setColor(Color.RED);
                 //g2d.drawLine((int) startX, (int) startY, (int) endX, (int) endY);
 
+                HashMap<Integer, SectorCompiler.Program> compiled = this.compiled;
+
                 if (!compiled.isEmpty() && compiled.containsKey(sector)){
-                    for(Triple<Integer, Integer, Integer> color : compiled.get(sector)) {
-                        int startLed = color.first();
-                        int endLed = color.second();
+                    SectorCompiler.Program program = compiled.get(sector);
+                    int[] ops = program.ops();
+                    for (int op = 0; op < ops.length; op += 3) {
+                        int startLed = ops[op];
+                        int endLed = ops[op + 1];
                         double unitX = (endX - startX) / NUM_LEDS, unitY = (endY - startY) / NUM_LEDS;
 
                         startX = (Math.cos(sectorAngle) * 10 + 400) + startLed * unitX;
@@ -189,7 +236,7 @@ public class SectoredCircle extends JPanel {
 
                     Font font = new Font("Verdana", Font.BOLD, 20);
                     g2d.setColor(Color.WHITE);
-                    drawCenteredString(g2d, compiled.get(sector).size() + "", new Rectangle(0, 0, PANEL_WIDTH, PANEL_HEIGHT), font);
+                    drawCenteredString(g2d, program.commands() + "", new Rectangle(0, 0, PANEL_WIDTH, PANEL_HEIGHT), font);
                 }
 
             } else {
@@ -218,6 +265,11 @@ public class SectoredCircle extends JPanel {
         return img;
     }
 
+    // The expanded frame display() sends
+    public PolarFrame getFrame() {
+        return full;
+    }
+
     public void setImage(BufferedImage img) {
         this.img = img;
     }
@@ -234,6 +286,130 @@ public class SectoredCircle extends JPanel {
         this.scaling = scaling;
     }
 
+    public void setSamplingFilter(SamplingPlan.Filter samplingFilter){
+        this.samplingFilter = samplingFilter;
+    }
+
+    // Size each LED's sampling box to the arc it sweeps instead of using SAMPLE_RADIUS everywhere
+    public void setArcRadii(boolean arcRadii){
+        this.arcRadii = arcRadii;
+    }
+
+    public void setSamplingParallelism(int parallelism){
+        synchronized (poolLock) {
+            ForkJoinPool retired = samplingPool;
+            samplingPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+            if (retired != null && !poolUsers.containsKey(retired)) retired.shutdown();
+        }
+    }
+
+    // The current sampling pool, kept running until the matching releasePool
+    private ForkJoinPool acquirePool(){
+        synchronized (poolLock) {
+            if (samplingPool != null) poolUsers.merge(samplingPool, 1, Integer::sum);
+            return samplingPool;
+        }
+    }
+
+    private void releasePool(ForkJoinPool pool){
+        if (pool == null) return;
+
+        synchronized (poolLock) {
+            if (poolUsers.merge(pool, -1, Integer::sum) > 0) return;
+
+            poolUsers.remove(pool);
+            if (pool != samplingPool) pool.shutdown();
+        }
+    }
+
+    // Bounds the copy search: window sectors back (0 for all) and exact counts for the maxCandidates likeliest (0 for all)
+    public void setCopySearch(int window, int maxCandidates){
+        copies = new SectorMatcher(SECTORS, NUM_LEDS, window, maxCandidates, FRAME_CLIENTS.length);
+    }
+
+    // Lets compileSamples copy sectors with copy-ar, for firmware that supports it
+    public void setCopyCommand(boolean copy){
+        compiler = new SectorCompiler(NUM_LEDS, copy);
+    }
+
+    // Uploads frames in ar-bulk packets, for firmware that supports them, instead of one request per command
+    public void setBulkUpload(boolean bulk){
+        transmitter.setBulk(bulk);
+    }
+
+    // Makes the next display resend every sector instead of only those the blades do not already show
+    public void refreshDisplay(){
+        transmitter.refresh();
+    }
+
+    // Requests each blade client may have queued ahead of the server; 0 uploads the clients serially
+    public void setUploadWindow(int window){
+        transmitter.setWindow(window);
+    }
+
+    // Caps the distinct colours of each sampled frame at paletteSize; 0 turns quantization off
+    public void setQuantization(int paletteSize, ColorQuantizer.Metric metric, boolean temporal){
+        quantizer = paletteSize > 0 ? new ColorQuantizer(paletteSize, metric, temporal) : null;
+    }
+
+    // Samples the current image serially and in parallel, reports both timings and whether the frames agree
+    public boolean verifyParallelSampling(){
+        BufferedImage image = renderFrame();
+        SamplingPlan plan = samplingPlan();
+        PolarFrame serial = new PolarFrame(SECTORS, NUM_LEDS), parallel = new PolarFrame(SECTORS, NUM_LEDS);
+
+        long start = System.nanoTime();
+        plan.sample(image, serial, samplingFilter);
+        long serialTime = System.nanoTime() - start;
+
+        ForkJoinPool pool = acquirePool();
+        try {
+            start = System.nanoTime();
+            plan.sample(image, parallel, samplingFilter, pool != null ? pool : ForkJoinPool.commonPool());
+        } finally {
+            releasePool(pool);
+        }
+        long parallelTime = System.nanoTime() - start;
+
+        boolean matches = serial.equals(parallel);
+        System.out.println(String.format("Sampling serial %.2f ms, parallel %.2f ms, %s",
+                serialTime / 1e6, parallelTime / 1e6, matches ? "identical" : "MISMATCH"));
+        return matches;
+    }
+
+    // Loads a pre-baked frame in place of the sampled one, until the next sample; a pipeline stage, so
+    // run it through FramePipeline and call showPreview once it is done
+    void previewFrame(RieFile file){
+        if (file.sectors() != SECTORS || file.leds() != NUM_LEDS) {
+            throw new IllegalArgumentException("Frame is " + file.sectors() + "x" + file.leds() + ", expected " + SECTORS + "x" + NUM_LEDS);
+        }
+
+        file.decode(sampled);
+        expandSampling();
+        sampleDifferences();
+        compileSamples();
+    }
+
+    // Switches to the sampling view of the expanded frame; call on the EDT
+    public void showPreview(){
+        this.showImage = false;
+        this.showSampling = true;
+        showDefaultSample();
+    }
+
+    // Shows an already expanded frame, such as a decoded animation frame, in the sampling view without
+    // sampling or compiling it; call on the EDT
+    public void showFrame(PolarFrame frame){
+        if (frame.sectors() != SECTORS || frame.leds() != NUM_LEDS) {
+            throw new IllegalArgumentException("Frame is " + frame.sectors() + "x" + frame.leds() + ", expected " + SECTORS + "x" + NUM_LEDS);
+        }
+
+        displayed.copyFrom(frame);
+        shownConverted.set(0, SECTORS);
+        this.showImage = false;
+        this.showSampling = true;
+    }
+
     public void showGuide(boolean hide){
         this.show = !hide;
         this.repaint();
@@ -241,7 +417,9 @@ public class SectoredCircle extends JPanel {
 
     public void sample() {
 
-        sampleImage();
+        BufferedImage image = renderFrame();
+
+        sampleImage(image);
 
         expandSampling();
 
@@ -255,289 +433,255 @@ public class SectoredCircle extends JPanel {
 
         sampleITransform(true);
 
-        saveFiles();
-    }
+        saveFiles(image);
 
-    private void saveFiles() {
+        publishFrame();
+    }
 
-        HashMap<Integer, ByteBuffer> fullEncoded = new HashMap<>();
+    // Copies the selected frame and the converted sectors for painting; call once a pipeline job has finished
+    void publishFrame() {
+        frameLock.lock();
+        try {
+            displayed.copyFrom(selected);
+            shownConverted.clear();
+            shownConverted.or(converted);
+        } finally {
+            frameLock.unlock();
+        }
+    }
 
-        EncodingUtils.HuffmanEncode(full, fullEncoded, SECTORS);
+    // Writes the sampled image next to the frames it produced
+    void saveFiles(BufferedImage image) {
 
         try {
-            EncodingUtils.WriteToFile("./full.rie", fullEncoded);
+            ImageIO.write(image, "jpg", new File("./export.jpg"));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        HashMap<Integer, ByteBuffer> derivativeEncoded = new HashMap<>();
+        writeFrame("./full.rie", full);
 
-        EncodingUtils.HuffmanEncode(derivative, derivativeEncoded, SECTORS);
+        writeFrame("./derivative.rie", derivative);
+
+    }
+
+    // Palette coded; BatchRenderer reports what the shared table saves over per-sector tables
+    private void writeFrame(String name, PolarFrame frame) {
+
+        HashMap<Integer, ByteBuffer> encoded = new HashMap<>();
+        ByteBuffer table = EncodingUtils.PaletteHuffmanEncode(frame, encoded, SECTORS);
 
         try {
-            EncodingUtils.WriteToFile("./derivative.rie", derivativeEncoded);
+            RieFile.Write(Paths.get(name), table, encoded, SECTORS, NUM_LEDS, RieFile.PALETTE_CODING);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
 
+    void sampleDerivative(boolean useDCT) {
+        frameLock.lock();
+        try {
+            derive(useDCT);
+        } finally {
+            frameLock.unlock();
+        }
     }
 
-    private void sampleDerivative(boolean useDCT) {
-        ringDerivative.clear();
-        derivative.clear();
-        vrderringTransform.clear();
-        viderringTransform.clear();
-        vrderTransform.clear();
-        viderTransform.clear();
-        iderTransform.clear();
-        iderRingTransform.clear();
-        integration.clear();
-        ringIntegration.clear();
+    private void derive(boolean useDCT) {
 
-        TransformationUtils.RadialDerivative(full, derivative, SECTORS);
+        TransformationUtils.RadialDerivative(fullPlanes, derivativePlanes, SECTORS);
+        derivativePlanes.pack(derivative);
 
-        TransformationUtils.RadialFourierTransform(derivative, viderTransform, vrderTransform, derTransform, SECTORS, FT_SAMPLES, useDCT);
+        TransformationUtils.RadialFourierTransform(derivativePlanes, viderTransform, vrderTransform, derTransform, SECTORS, FT_SAMPLES, useDCT);
 
-        TransformationUtils.AngularDerivative(full, ringDerivative, SECTORS);
+        TransformationUtils.AngularDerivative(fullPlanes, ringDerivativePlanes, SECTORS);
+        ringDerivativePlanes.pack(ringDerivative);
 
-        TransformationUtils.RadialFourierTransform(ringDerivative, viderringTransform, vrderringTransform, derRingTransform, SECTORS, FT_SAMPLES, useDCT);
+        TransformationUtils.RadialFourierTransform(ringDerivativePlanes, viderringTransform, vrderringTransform, derRingTransform, SECTORS, FT_SAMPLES, useDCT);
 
         int filterStart = 0;
         int filterEnd = 12;
 
-        TransformationUtils.InverseRadialFourierTransform(derTransform, iderTransform, SECTORS, FT_SAMPLES, filterStart, filterEnd, useDCT);
-        TransformationUtils.InverseRadialFourierTransform(derRingTransform, iderRingTransform, SECTORS, FT_SAMPLES, filterStart, filterEnd, useDCT);
+        TransformationUtils.InverseRadialFourierTransform(derTransform, scratchPlanes, SECTORS, FT_SAMPLES, filterStart, filterEnd, useDCT);
+        scratchPlanes.pack(iderTransform);
+        TransformationUtils.InverseRadialFourierTransform(derRingTransform, scratchPlanes, SECTORS, FT_SAMPLES, filterStart, filterEnd, useDCT);
+        scratchPlanes.pack(iderRingTransform);
 
-        TransformationUtils.RadialIntegration(derivative, integration, SECTORS);
-        TransformationUtils.AngularIntegration(ringDerivative, ringIntegration, SECTORS);
+        TransformationUtils.RadialIntegration(derivativePlanes, scratchPlanes, SECTORS);
+        scratchPlanes.pack(integration);
+        TransformationUtils.AngularIntegration(ringDerivativePlanes, scratchPlanes, SECTORS);
+        scratchPlanes.pack(ringIntegration);
 
     }
 
-    private void sampleTransform(boolean useDCT) {
-
-        transform.clear();
-        vrtransform.clear();
-        vitransform.clear();
+    void sampleTransform(boolean useDCT) {
 
-        TransformationUtils.RadialFourierTransform(full, vitransform, vrtransform, transform, SECTORS, FT_SAMPLES, useDCT);
-
-        ringTransform.clear();
-        vrringTransform.clear();
-        vrringTransform.clear();
+        frameLock.lock();
+        try {
+            TransformationUtils.RadialFourierTransform(fullPlanes, vitransform, vrtransform, transform, SECTORS, FT_SAMPLES, useDCT);
 
-        TransformationUtils.AngularFourierTransform(ring, viringTransform, vrringTransform, ringTransform, NUM_LEDS, FT_SAMPLES, useDCT);
+            TransformationUtils.AngularFourierTransform(fullPlanes, viringTransform, vrringTransform, ringTransform, NUM_LEDS, FT_SAMPLES, useDCT);
+        } finally {
+            frameLock.unlock();
+        }
 
     }
 
-    private void sampleITransform(boolean useDCT){
-
-        iringTransform.clear();
-        itransform.clear();
+    void sampleITransform(boolean useDCT){
 
         int filterStart = 0;
         int filterEnd = FT_SAMPLES - 2;
 
-        TransformationUtils.InverseRadialFourierTransform(transform, itransform, SECTORS, FT_SAMPLES, filterStart, filterEnd, useDCT);
+        frameLock.lock();
+        try {
+            TransformationUtils.InverseRadialFourierTransform(transform, scratchPlanes, SECTORS, FT_SAMPLES, filterStart, filterEnd, useDCT);
+            scratchPlanes.pack(itransform);
 
-        TransformationUtils.InverseAngularFourierTransform(ringTransform, iringTransform, NUM_LEDS, FT_SAMPLES, filterStart, filterEnd, useDCT);
+            TransformationUtils.InverseAngularFourierTransform(ringTransform, scratchPlanes, NUM_LEDS, FT_SAMPLES, filterStart, filterEnd, useDCT);
+            scratchPlanes.pack(iringTransform);
+        } finally {
+            frameLock.unlock();
+        }
 
     }
 
 
-    private void sampleImage() {
+    // Takes a frame from renderFrame(); safe to call off the EDT
+    void sampleImage(BufferedImage image) {
+
+        ForkJoinPool pool = acquirePool();
+        try {
+            samplingPlan().sample(image, sampled, samplingFilter, pool);
+
+            // Before expandSampling, so fewer colours also means fewer sectors that change
+            ColorQuantizer quantizer = this.quantizer;
+            if (quantizer != null) quantizer.quantize(sampled, pool);
+        } finally {
+            releasePool(pool);
+        }
+    }
 
+    // Rasterizes the panel as it will be sampled; paints the component, so call on the EDT
+    BufferedImage renderFrame() {
         this.showGuide(true);
         boolean tempSampling = this.showSampling;
         this.showSampling = false;
         BufferedImage image = generateImage();
         this.showSampling = tempSampling;
         this.showGuide(false);
-        try {
-            ImageIO.write(image, "jpg", new File("./export.jpg"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        sampled.clear();
-        colorMap.clear();
-
-        // LED <Sector, Color>
-        for (int i = 0; i < NUM_LEDS; i++) {
-
-            HashMap<Integer, Integer> ledColorChangeMap = new HashMap<>();
-
-            int prevSector = 0, sector = 0;
-
-            int trueSampleRadius = SAMPLE_RADIUS;
-
-            int samples = SECTORS;
-            int numSampled = 0;
-
-            for (double j = 0; j < 2 * Math.PI; j += 2 * Math.PI / SECTORS) {
-                double angle = j + Math.PI / SECTORS;
-
-                double unitX = Math.cos(angle), unitY = Math.sin(angle);
-                double startX = (unitX * 10 + 400), startY = (unitY * 10 + 400),
-                        endX = (unitX * 400 + 400), endY = (unitY * 400 + 400);
-
-                double trueUnitX = (endX - startX), trueUnitY = (endY - startY);
-
-                double iterX = startX + (double) i / NUM_LEDS * trueUnitX, iterY = startY + (double) i / NUM_LEDS * trueUnitY;
-
-                double red = 0, green = 0, blue = 0;
-
-                for (int x = -trueSampleRadius; x <= trueSampleRadius; x++)
-                    for (int y = -trueSampleRadius; y <= trueSampleRadius; y++) {
-                        Color crgb = new Color(image.getRGB((int) iterX + x, (int) iterY + y));
-                        int rgb = crgb.getRGB();
+        return image;
+    }
 
-                        Triple<Integer, Integer, Integer> sample = TransformationUtils.SplitRGB(rgb);
+    // The frame renderFrame() produces with no pixel picked, drawn without a panel so it works headless
+    static BufferedImage Rasterize(BufferedImage img, int xOff, int yOff, int scaling) {
+        BufferedImage image = new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g2d = image.createGraphics();
 
-                        red += sample.first();
-                        green += sample.second();
-                        blue += sample.third();
-                    }
+        g2d.setColor(UIManager.getColor("Panel.background"));
+        g2d.fillRect(0, 0, PANEL_WIDTH, PANEL_HEIGHT);
 
-                double area = 255 * (trueSampleRadius * 2 + 1) * (trueSampleRadius * 2 + 1);
+        g2d.setColor(Color.BLACK);
+        g2d.fillOval(0, 0, PANEL_WIDTH, PANEL_HEIGHT);
+        g2d.setColor(Color.WHITE);
+        g2d.fillOval(390, 390, 20, 20);
 
-                double redB = red / area;
-                double greenB = green / area;
-                double blueB = blue / area;
+        if (img != null) g2d.drawImage(img, xOff - scaling/2, yOff - scaling/2, PANEL_WIDTH + scaling, PANEL_HEIGHT + scaling, null);
 
-                double gamma = 4.5;
+        g2d.dispose();
+        return image;
+    }
 
-                double redTB = Math.pow(redB, gamma);
-                double greenTB = Math.pow(greenB, gamma);
-                double blueTB = Math.pow(blueB, gamma);
+    static SamplingPlan Plan(boolean arcRadii) {
+        return arcRadii
+                ? SamplingPlan.Of(SECTORS, NUM_LEDS, SamplingPlan.ArcRadii(SECTORS, NUM_LEDS, PANEL_WIDTH, PANEL_HEIGHT, 1, MAX_SAMPLE_RADIUS), PANEL_WIDTH, PANEL_HEIGHT)
+                : SamplingPlan.Of(SECTORS, NUM_LEDS, SAMPLE_RADIUS, PANEL_WIDTH, PANEL_HEIGHT);
+    }
 
-                Triple<Integer, Integer, Integer> color = new Triple<>((int) (redTB * 255), (int) (greenTB * 176), (int) (blueTB * 240));
+    private SamplingPlan samplingPlan() {
+        return Plan(arcRadii);
+    }
 
-                int value = TransformationUtils.CombineRGB(color);
+    void expandSampling() {
 
-                if(angle > (2 * Math.PI / samples) * numSampled) {
-                    colorMap.add(value);
+        frameLock.lock();
+        try {
+            ExpandSampling(sampled, full, converted);
 
-                    if (ledColorChangeMap.isEmpty() || ledColorChangeMap.get(prevSector) != value) {
-                        prevSector = sector;
-                        ledColorChangeMap.put(prevSector, value);
-                    }
-                    numSampled++;
-                }
-                sector++;
-            }
-            sampled.put(i, ledColorChangeMap);
-            //System.out.println(i + ":" + ledColorChangeMap.size());
+            fullPlanes.split(full);
+        } finally {
+            frameLock.unlock();
         }
-
-        //System.out.println("Unique Colors: " + colorMap.size());
     }
 
-    private void expandSampling() {
+    // Holds each sector's LEDs at the last sector where any of them changed; converted marks those sectors
+    static void ExpandSampling(PolarFrame sampled, PolarFrame full, BitSet converted) {
 
-        full.clear();
         converted.clear();
-        ring.clear();
 
-        ArrayList<Integer> prev = null;
+        int prev = -1;
 
-        for (int i = 0; i < SECTORS; i++) {
-            ArrayList<Integer> armFrame = new ArrayList<>();
-            while (armFrame.size() < NUM_LEDS) armFrame.add(0);
+        for (int i = 0; i < sampled.sectors(); i++) {
             boolean hasSampled = false;
-            for (int j = 0; j < NUM_LEDS; j++) {
-                if (sampled.get(j).containsKey(i)) {
+            for (int j = 0; j < sampled.leds(); j++) {
+                int value = sampled.get(i, j);
+                // An LED is sampled in the sectors where its colour changes
+                if (i == 0 || value != sampled.get(i - 1, j)) {
                     hasSampled = true;
-                    armFrame.set(j, sampled.get(j).get(i));
-                } else if (prev != null) {
-                    armFrame.set(j, prev.get(j));
+                    full.set(i, j, value);
+                } else if (prev >= 0) {
+                    full.set(i, j, full.get(prev, j));
+                } else {
+                    full.set(i, j, 0);
                 }
             }
 
             if (hasSampled) {
-                converted.put(i, armFrame);
-                prev = armFrame;
+                converted.set(i);
+                prev = i;
             }
-            full.put(i, armFrame);
         }
+    }
 
-        for(int i = 0; i < NUM_LEDS; i++){
-
-            ArrayList<Integer> ringColors = new ArrayList<>();
-
-            for(int j = 0; j < SECTORS; j++){
-                ringColors.add(full.get(j).get(i));
-            }
+    void sampleDifferences() {
+        copies.match(full, converted);
+    }
 
-            ring.put(i, ringColors);
+    // What compileSamples produced, next to what plain runs would have cost
+    public record CompileStats(int sectors, int requests, int bytes, int runRequests, int runBytes, int runs, int layered, int copies) {
+        @Override
+        public String toString(){
+            return String.format("Compiled %d sectors to %d requests, ~%d bytes (runs alone: %d requests, ~%d bytes); runs %d, layered %d, copy %d",
+                    sectors, requests, bytes, runRequests, runBytes, runs, layered, copies);
         }
     }
 
-    private void sampleDifferences() {
-
-        copies.clear();
+    CompileStats compileSamples() {
 
-        for (int i = SECTORS - 1; i >= 0; i--) {
-            if (converted.containsKey(i)) {
+        HashMap<Integer, SectorCompiler.Program> compiled = new HashMap<>();
+        int commands = 0, bytes = 0, runCommands = 0, runBytes = 0;
+        int[] chosen = new int[SectorCompiler.Representation.values().length];
 
-                HashMap<Integer, Integer> differences = null;
+        for (int i = converted.nextSetBit(0); i >= 0; i = converted.nextSetBit(i + 1)) {
+            SectorCompiler.Program program = compiler.compile(full, i, copies);
+            compiled.put(i, program);
 
-                ArrayList<Integer> checkI = converted.get(i);
+            // stage-ar and commit-ar frame every sector whatever its program
+            int framing = SectorCompiler.RequestBytes(1) + SectorCompiler.RequestBytes(0);
+            commands += program.commands() + 2;
+            bytes += program.bytes() + framing;
 
-                int minInd = -1;
+            SectorCompiler.Program runs = compiler.runs(full, i);
+            runCommands += runs.commands() + 2;
+            runBytes += runs.bytes() + framing;
 
-                for (int j = i - 1; j >= 0; j--) {
-                    if (converted.containsKey(j)) {
-                        ArrayList<Integer> checkJ = converted.get(j);
-                        HashMap<Integer, Integer> curr = new HashMap<>();
-                        for (int k = 0; k < NUM_LEDS; k++) {
-                            if (checkJ.get(k) != checkI.get(k)) {
-                                curr.put(k, checkI.get(k));
-                            }
-                        }
-
-                        if (differences == null || differences.size() > curr.size()) {
-                            minInd = j;
-                            differences = curr;
-                        }
-                    }
-                }
-
-                if (minInd >= 0)
-                    copies.put(i, new Pair<>(minInd, differences));
-
-            }
+            chosen[program.representation().ordinal()]++;
         }
-    }
-
-    private void compileSamples() {
-
-        compiled.clear();
 
-        for (int i = SECTORS - 1; i >= 0; i--) {
-            if (converted.containsKey(i)) {
+        this.compiled = compiled;
 
-                int start = 0, current;
-
-                ArrayList<Triple<Integer, Integer, Integer>> color = new ArrayList<>();
-
-                ArrayList<Integer> checkI = converted.get(i);
-                current = checkI.get(0);
-                //System.out.print(i + " ");
-                for (int j = 1; j <= checkI.size(); j++) {
-                    if (j == checkI.size() || checkI.get(j) != current) {
-                        //System.out.print("(" + current + ":" +  start + "=" + j + "),");
-                        color.add(new Triple(start, j, current));
-
-                        if (j != checkI.size()) {
-                            current = checkI.get(j);
-                            start = j;
-                        }
-                    }
-                }
-                //System.out.println();
-                compiled.put(i, color);
-            }
-        }
+        return new CompileStats(compiled.size(), commands, bytes, runCommands, runBytes,
+                chosen[SectorCompiler.Representation.RUNS.ordinal()], chosen[SectorCompiler.Representation.LAYERED.ordinal()],
+                chosen[SectorCompiler.Representation.COPY.ordinal()]);
     }
 
     public int sample(int x, int y){
@@ -549,39 +693,40 @@ public class SectoredCircle extends JPanel {
         return 0;
     }
 
+    // Only ever runs on the EDT, so colorMap is the EDT's alone
     private void postDisplayUpdate() {
+        publishFrame();
         colorMap.clear();
-        for(int i = 0; i < SECTORS; i++){
-            ArrayList<Integer> crgbs = this.displayed.get(i);
-            colorMap.addAll(crgbs);
+        for(int crgb : this.displayed.data()){
+            colorMap.add(crgb);
         }
         System.out.println("Unique Colors: " + colorMap.size());
     }
 
     public void showRadial(boolean ift, boolean real) {
-        this.displayed = ift ? iringTransform : (real ? vrringTransform : viringTransform);
+        this.selected = ift ? iringTransform : (real ? vrringTransform : viringTransform);
         this.postDisplayUpdate();
     }
 
 
 
     public void showAngular(boolean ift, boolean real) {
-        this.displayed = ift ? itransform : (real ? vrtransform : vitransform);
+        this.selected = ift ? itransform : (real ? vrtransform : vitransform);
         this.postDisplayUpdate();
     }
 
     public void showDerivative(boolean radial, boolean transform, boolean ift){
-        this.displayed = !radial ? (ift ? iderRingTransform : (transform ? vrderringTransform : ringDerivative)) : (ift ? iderTransform : (transform ? vrderTransform : derivative));
+        this.selected = !radial ? (ift ? iderRingTransform : (transform ? vrderringTransform : ringDerivative)) : (ift ? iderTransform : (transform ? vrderTransform : derivative));
         this.postDisplayUpdate();
     }
 
     public void showIntegration(boolean radial){
-        this.displayed = radial ? integration : ringIntegration;
+        this.selected = radial ? integration : ringIntegration;
         this.postDisplayUpdate();
     }
 
     public void showDefaultSample() {
-        this.displayed = full;
+        this.selected = full;
         this.postDisplayUpdate();
     }
 
@@ -592,14 +737,18 @@ public class SectoredCircle extends JPanel {
 
         int i = 0;
 
-        for(int sector: converted.keySet()){
-            code.append("ArmFrame *sector" + i + " = new ArmFrame(NUM_LEDS);\n");
-            ArrayList<Integer> crgbs = converted.get(sector);
-            for(int j = 0; j < crgbs.size(); j++){
-                code.append("sector" + i + "->SetLED(" + j + ", CRGB(" + crgbs.get(j) + "));\n");
+        frameLock.lock();
+        try {
+            for(int sector = converted.nextSetBit(0); sector >= 0; sector = converted.nextSetBit(sector + 1)){
+                code.append("ArmFrame *sector" + i + " = new ArmFrame(NUM_LEDS);\n");
+                for(int j = 0; j < NUM_LEDS; j++){
+                    code.append("sector" + i + "->SetLED(" + j + ", CRGB(" + full.get(sector, j) + "));\n");
+                }
+                code.append("f1->AddArmFrame(sector" + i + ", " + ((double)sector/SECTORS * Math.PI * 2) + ");\n");
+                i++;
             }
-            code.append("f1->AddArmFrame(sector" + i + ", " + ((double)sector/SECTORS * Math.PI * 2) + ");\n");
-            i++;
+        } finally {
+            frameLock.unlock();
         }
 
         return code.toString();
@@ -618,31 +767,43 @@ public class SectoredCircle extends JPanel {
         g.drawString(text, x, y);
     }
 
-    public void display(ESPControlServer server) {
-        server.addRequest("stage-fr", FRAME_CLIENTS[0], SECTORS);
-        for(int sector = 0; sector < SECTORS; sector++) {
-            if (compiled.containsKey(sector)){
-
-                byte id = FRAME_CLIENTS[sector % FRAME_CLIENTS.length];
-
-                ArrayList<Triple<Integer, Integer, Integer>> crgb = compiled.get(sector);
-
-                server.addRequest("stage-ar", id, sector);
-
-                for (Triple<Integer, Integer, Integer> color : crgb) {
-                    int ledStart = color.first();
-                    int ledEnd = color.second();
-                    if(ledEnd - ledStart > 1)
-                        server.addRequest("leds", id, ledStart, ledEnd, color.third());
-                    else
-                        server.addRequest("led", id, ledStart, color.third());
-                }
+    public void display(RequestSink sink) {
+        transmitter.send(sink, compiled, full, FRAME_CLIENTS);
+        //server.addRequest("anim", Main.DISPLAY_ID, 6);
+    }
 
-                server.addRequest("commit-ar", id, new ArrayList<Integer>());
+    // Sends only the runs of current that differ from previous, which the blades are assumed to show;
+    // stage-ar edits a sector in place. The blades cannot copy sectors, so deltas are taken against the
+    // same sector rather than an animation's source sectors. A null previous sends every sector. Frame
+    // requests are ordered across clients on awaitApplied, as in FrameTransmitter.
+    // Returns the number of LED commands sent.
+    static int DisplayChanges(RequestSink sink, PolarFrame previous, PolarFrame current) throws InterruptedException {
+        int[] data = current.data(), reference = previous != null ? previous.data() : null;
+        int commands = 0;
+
+        sink.addRequest("stage-fr", FRAME_CLIENTS[0], SECTORS);
+        sink.awaitApplied(FRAME_CLIENTS[0]);
+        for (int sector = 0; sector < SECTORS; sector++) {
+            int offset = current.index(sector, 0);
+            if (reference != null && Arrays.equals(data, offset, offset + NUM_LEDS, reference, offset, offset + NUM_LEDS)) continue;
+
+            byte id = FRAME_CLIENTS[sector % FRAME_CLIENTS.length];
+
+            int[] runs = AnimationEncoder.Runs(data, offset, reference, offset, NUM_LEDS);
+
+            sink.addRequest("stage-ar", id, sector);
+            for (int i = 0; i < runs.length; i += 3) {
+                if (runs[i + 1] - runs[i] > 1)
+                    sink.addRequest("leds", id, runs[i], runs[i + 1], runs[i + 2]);
+                else
+                    sink.addRequest("led", id, runs[i], runs[i + 2]);
             }
+            sink.addRequest("commit-ar", id, new ArrayList<Integer>());
+            commands += runs.length / 3;
         }
+        sink.awaitApplied(FRAME_CLIENTS);
+        sink.addRequest("commit-fr", FRAME_CLIENTS[0], new ArrayList<Integer>());
 
-        server.addRequest("commit-fr", FRAME_CLIENTS[0], new ArrayList<Integer>());
-        //server.addRequest("anim", Main.DISPLAY_ID, 6);
+        return commands;
     }
 }
@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ Per-client outbound request queues, each drained into a RequestSink by its own sender thread, so the
+ arms of a blade upload side by side instead of through one serial sequence.
+
+ <P>Each client's requests reach the sink in the order they were added; there is no ordering between
+ clients. A client queue holds at most window requests not yet handed to the sink, and add blocks
+ while it is full, so a slow arm holds back its producer rather than growing memory. await is the
+ barrier across clients: it returns once everything added so far for the given clients has been handed
+ over, which is how frame-level stage and commit requests are kept ahead of and behind the sectors.
+
+ <P>Senders are started on a client's first request, so any number of arms can be served. Like the
+ result reader, they do not take the server lock; callers that need other writers kept out of a frame
+ hold it around the whole upload. Senders call the sink concurrently, so it must be safe for that:
+ BladeSimulator is, and RequestSink.Of serializes calls to a server whose thread-safety is unknown.
+
+ <P>A request the sink throws on is not retried. The sender records the failure and moves on, and the
+ next await covering that client throws it, so a caller never takes a failed upload for a sent one.
+
+ <P>close stops the senders and drops what is still queued. Producers blocked on a full queue and
+ callers waiting in await are released with an IllegalStateException rather than left waiting.
+ */
+public class UploadQueue {
+
+    public static final int DEFAULT_WINDOW = 256;
+
+    // One of values or list is set; a fence only marks a point in the queue
+    private record Request(String command, int[] values, ArrayList<Integer> list, Fence fence) {}
+
+    // Passed once every client's sender has reached it; failed if any of them never will
+    private static final class Fence {
+        private final CountDownLatch latch;
+        private volatile RuntimeException failure;
+
+        private Fence(int clients){
+            latch = new CountDownLatch(clients);
+        }
+
+        private void fail(RuntimeException failure){
+            if (this.failure == null) this.failure = failure;
+            latch.countDown();
+        }
+    }
+
+    private final RequestSink sink;
+    private final int window;
+    private final Map<Byte, Sender> senders = new HashMap<>();
+    private volatile boolean closed;
+
+    public UploadQueue(RequestSink sink, int window){
+        if (window < 1) throw new IllegalArgumentException("Window must be at least 1, got " + window);
+
+        this.sink = sink;
+        this.window = window;
+    }
+
+    public RequestSink sink(){
+        return sink;
+    }
+
+    public int window(){
+        return window;
+    }
+
+    public void add(byte client, String command, int... args) throws InterruptedException {
+        put(sender(client), new Request(command, args, null, null));
+    }
+
+    public void add(byte client, String command, ArrayList<Integer> args) throws InterruptedException {
+        put(sender(client), new Request(command, null, args, null));
+    }
+
+    // Waits until every request added so far for clients has been handed to the sink
+    public void await(byte... clients) throws InterruptedException {
+        Fence fence = new Fence(clients.length);
+        for (byte client : clients) put(sender(client), new Request(null, null, null, fence));
+        fence.latch.await();
+        if (fence.failure != null) throw fence.failure;
+    }
+
+    // Fences do not count against the window
+    private void put(Sender sender, Request request) throws InterruptedException {
+        if (request.fence() == null) sender.space.acquire();
+
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Upload queue is closed");
+            sender.queue.add(request);
+        }
+    }
+
+    // Requests handed to the sink for client so far
+    public long sent(byte client){
+        return sender(client).sent;
+    }
+
+    // Stops the senders; requests still queued are dropped, and whoever waits on them is released
+    public synchronized void close(){
+        if (closed) return;
+
+        closed = true;
+        for (Sender sender : senders.values()) {
+            sender.thread.interrupt();
+
+            ArrayList<Request> dropped = new ArrayList<>();
+            sender.queue.drainTo(dropped);
+            for (Request request : dropped) {
+                if (request.fence() != null) request.fence().fail(new IllegalStateException("Upload queue closed before the requests were sent"));
+            }
+
+            // Wakes every producer blocked on the full queue; they find it closed
+            sender.space.release(Integer.MAX_VALUE / 2);
+        }
+        senders.clear();
+    }
+
+    private synchronized Sender sender(byte client){
+        if (closed) throw new IllegalStateException("Upload queue is closed");
+        return senders.computeIfAbsent(client, Sender::new);
+    }
+
+    private class Sender implements Runnable {
+        private final byte client;
+        private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+        // Requests the queue may take before add blocks
+        private final Semaphore space = new Semaphore(window);
+        private final Thread thread;
+        private volatile long sent;
+        // First sink failure since the last fence, on the sender thread only
+        private RuntimeException failure;
+
+        private Sender(byte client){
+            this.client = client;
+
+            thread = new Thread(this, "upload-" + client);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run(){
+            while (true) {
+                Request request;
+                try {
+                    request = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (request.fence() != null) {
+                    if (failure != null) request.fence().fail(failure);
+                    else request.fence().latch.countDown();
+                    failure = null;
+                    continue;
+                }
+
+                try {
+                    if (request.list() != null) sink.addRequest(request.command(), client, request.list());
+                    else sink.addRequest(request.command(), client, request.values());
+                    sent++;
+                } catch (RuntimeException e) {
+                    if (failure == null) failure = e;
+                } finally {
+                    space.release();
+                }
+            }
+        }
+    }
+}
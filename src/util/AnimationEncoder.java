@@ -0,0 +1,357 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ Encodes a sequence of frames as keyframes plus per-sector deltas against the frame before.
+
+ Each changed sector names a source sector of the previous frame, the sector itself or one up to
+ searchRadius away, and the runs of LEDs that differ from it; the decoder copies the source in and
+ paints the runs over it. Picking the source the way copies does for a single frame makes rotations
+ and slow pans cost a handful of runs instead of a whole sector. Unchanged sectors are not stored.
+
+ A frame is a keyframe every keyframeInterval frames, and whenever its delta would be larger than
+ maxDeltaBytes or, with maxDeltaBytes 0, larger than the palette coded keyframe.
+
+ .ria container, big endian:
+
+   magic       4 bytes, "RIEA"
+   version     2 bytes
+   sectors     2 bytes
+   leds        2 bytes
+   fps         2 bytes
+   frames      4 bytes
+   then per frame:
+   type        1 byte, KEYFRAME or DELTA
+   length      4 bytes
+   payload     a palette coded .rie container for a keyframe, otherwise
+               changed (2 bytes) and per changed sector: sector (2), source (2), runs (1),
+               then per run: start (1), end (1, exclusive), colour (3, RGB)
+ */
+public class AnimationEncoder {
+
+    public static final int MAGIC = 0x52494541;
+    public static final int VERSION = 1;
+
+    public static final int KEYFRAME = 0;
+    public static final int DELTA = 1;
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+    public static final int DEFAULT_SEARCH_RADIUS = 4;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int SECTOR_HEADER_SIZE = 5, RUN_SIZE = 5;
+
+    // runs holds (start, end, colour) triples, end exclusive
+    public record SectorDelta(int sector, int source, int[] runs) {
+        public int runCount(){
+            return runs.length / 3;
+        }
+    }
+
+    // A keyframe carries the whole frame and no deltas, a delta frame the reverse
+    public record Frame(PolarFrame keyframe, List<SectorDelta> deltas) {
+        public boolean isKeyframe(){
+            return keyframe != null;
+        }
+
+        public int size(){
+            int size = 2;
+            for (SectorDelta delta : deltas) size += SECTOR_HEADER_SIZE + delta.runCount() * RUN_SIZE;
+            return size;
+        }
+    }
+
+    private final int sectors, leds;
+    private final int keyframeInterval, searchRadius, maxDeltaBytes;
+
+    // What the decoder holds after the last frame
+    private final PolarFrame previous;
+    private int sinceKeyframe;
+
+    public AnimationEncoder(int sectors, int leds){
+        this(sectors, leds, DEFAULT_KEYFRAME_INTERVAL, DEFAULT_SEARCH_RADIUS, 0);
+    }
+
+    public AnimationEncoder(int sectors, int leds, int keyframeInterval, int searchRadius, int maxDeltaBytes){
+        if (keyframeInterval < 1) throw new IllegalArgumentException("Keyframe interval must be positive, got " + keyframeInterval);
+        if (leds > 255) throw new IllegalArgumentException("Runs are stored in bytes, at most 255 LEDs, got " + leds);
+
+        this.sectors = sectors;
+        this.leds = leds;
+        this.keyframeInterval = keyframeInterval;
+        this.searchRadius = Math.min(Math.max(searchRadius, 0), sectors / 2);
+        this.maxDeltaBytes = Math.max(maxDeltaBytes, 0);
+        this.previous = new PolarFrame(sectors, leds);
+    }
+
+    // Forces the next frame to be a keyframe
+    public void reset(){
+        sinceKeyframe = 0;
+    }
+
+    public Frame encode(PolarFrame frame){
+        if (frame.sectors() != sectors || frame.leds() != leds) {
+            throw new IllegalArgumentException("Frame is " + frame.sectors() + "x" + frame.leds() + ", expected " + sectors + "x" + leds);
+        }
+
+        if (sinceKeyframe > 0 && sinceKeyframe < keyframeInterval) {
+            List<SectorDelta> deltas = delta(frame, maxDeltaBytes > 0 ? maxDeltaBytes : Integer.MAX_VALUE);
+
+            // Only a delta that touches most of the frame can cost as much as a keyframe
+            if (deltas != null && maxDeltaBytes == 0 && deltas.size() > sectors / 2
+                    && new Frame(null, deltas).size() > EncodeKeyframe(frame).remaining()) {
+                deltas = null;
+            }
+
+            if (deltas != null) {
+                Apply(deltas, previous);
+                sinceKeyframe++;
+                return new Frame(null, deltas);
+            }
+        }
+
+        previous.copyFrom(frame);
+        sinceKeyframe = 1;
+        return new Frame(new PolarFrame(frame), List.of());
+    }
+
+    // Null once the deltas outgrow limit bytes
+    private List<SectorDelta> delta(PolarFrame frame, int limit){
+        int[] current = frame.data(), reference = previous.data();
+        List<SectorDelta> deltas = new ArrayList<>();
+        int size = 2;
+
+        for (int sector = 0; sector < sectors; sector++) {
+            int offset = sector * leds;
+            if (Arrays.equals(current, offset, offset + leds, reference, offset, offset + leds)) continue;
+
+            // Nearest sector of the previous frame with the fewest differing LEDs, ties to the sector itself
+            int source = sector, best = Differences(current, offset, reference, offset, leds, leds);
+            for (int d = 1; d <= searchRadius && best > 0; d++) {
+                for (int candidate : new int[]{ Math.floorMod(sector - d, sectors), Math.floorMod(sector + d, sectors) }) {
+                    int differences = Differences(current, offset, reference, candidate * leds, leds, best);
+                    if (differences < best) {
+                        best = differences;
+                        source = candidate;
+                    }
+                }
+            }
+
+            int[] runs = Runs(current, offset, reference, source * leds, leds);
+            deltas.add(new SectorDelta(sector, source, runs));
+
+            size += SECTOR_HEADER_SIZE + runs.length / 3 * RUN_SIZE;
+            if (size > limit) return null;
+        }
+        return deltas;
+    }
+
+    // Counts LEDs that differ, giving up once limit is reached
+    private static int Differences(int[] a, int aOffset, int[] b, int bOffset, int leds, int limit){
+        int differences = 0;
+        for (int i = 0; i < leds && differences < limit; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) differences++;
+        }
+        return differences;
+    }
+
+    // Runs of one colour covering every LED of current that differs from reference, as (start, end, colour);
+    // a null reference differs everywhere
+    public static int[] Runs(int[] current, int offset, int[] reference, int referenceOffset, int leds){
+        int[] runs = new int[leds * 3];
+        int n = 0;
+
+        int i = 0;
+        while (i < leds) {
+            if (reference != null && current[offset + i] == reference[referenceOffset + i]) {
+                i++;
+                continue;
+            }
+
+            // Matching LEDs of the same colour ride along, they cost nothing inside a run
+            int start = i, color = current[offset + i], last = i;
+            while (++i < leds && current[offset + i] == color) {
+                if (reference == null || current[offset + i] != reference[referenceOffset + i]) last = i;
+            }
+
+            runs[n++] = start;
+            runs[n++] = last + 1;
+            runs[n++] = color;
+            i = last + 1;
+        }
+        return Arrays.copyOf(runs, n);
+    }
+
+    // Brings target, holding the previous frame, up to date with this one
+    public static void Apply(Frame frame, PolarFrame target){
+        if (frame.isKeyframe()) target.copyFrom(frame.keyframe());
+        else Apply(frame.deltas(), target);
+    }
+
+    private static void Apply(List<SectorDelta> deltas, PolarFrame target){
+        int leds = target.leds();
+        int[] data = target.data();
+
+        // Sources refer to the previous frame, which the first deltas would otherwise overwrite
+        HashMap<Integer, int[]> sources = new HashMap<>();
+        for (SectorDelta delta : deltas) {
+            if (delta.source() != delta.sector()) {
+                sources.computeIfAbsent(delta.source(), s -> Arrays.copyOfRange(data, s * leds, (s + 1) * leds));
+            }
+        }
+
+        for (SectorDelta delta : deltas) {
+            int offset = delta.sector() * leds;
+            if (delta.source() != delta.sector()) System.arraycopy(sources.get(delta.source()), 0, data, offset, leds);
+
+            int[] runs = delta.runs();
+            for (int i = 0; i < runs.length; i += 3) {
+                Arrays.fill(data, offset + runs[i], offset + runs[i + 1], runs[i + 2]);
+            }
+        }
+    }
+
+    public static void Write(Path path, List<Frame> frames, int sectors, int leds, int fps) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) sectors);
+        header.putShort((short) leds);
+        header.putShort((short) fps);
+        header.putInt(frames.size());
+        header.flip();
+
+        ByteBuffer[] buffers = new ByteBuffer[1 + frames.size() * 2];
+        buffers[0] = header;
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            ByteBuffer payload = frame.isKeyframe() ? EncodeKeyframe(frame.keyframe()) : EncodeDeltas(frame);
+
+            ByteBuffer prefix = ByteBuffer.allocate(5);
+            prefix.put((byte) (frame.isKeyframe() ? KEYFRAME : DELTA));
+            prefix.putInt(payload.remaining());
+            buffers[1 + i * 2] = prefix.flip();
+            buffers[2 + i * 2] = payload;
+        }
+
+        EncodingUtils.WriteAtomically(path, buffers);
+    }
+
+    private static ByteBuffer EncodeKeyframe(PolarFrame frame){
+        HashMap<Integer, ByteBuffer> encoded = new HashMap<>();
+        ByteBuffer table = EncodingUtils.PaletteHuffmanEncode(frame, encoded, frame.sectors());
+        return RieFile.Encode(table, encoded, frame.sectors(), frame.leds(), RieFile.PALETTE_CODING);
+    }
+
+    private static ByteBuffer EncodeDeltas(Frame frame){
+        ByteBuffer out = ByteBuffer.allocate(frame.size());
+        out.putShort((short) frame.deltas().size());
+        for (SectorDelta delta : frame.deltas()) {
+            out.putShort((short) delta.sector());
+            out.putShort((short) delta.source());
+            out.put((byte) delta.runCount());
+
+            int[] runs = delta.runs();
+            for (int i = 0; i < runs.length; i += 3) {
+                if ((runs[i + 2] & ~0xFFFFFF) != 0) throw new IllegalArgumentException("Delta colours must be 24 bit RGB, got " + runs[i + 2]);
+
+                out.put((byte) runs[i]);
+                out.put((byte) runs[i + 1]);
+                out.put((byte) (runs[i + 2] >> 16));
+                out.putShort((short) runs[i + 2]);
+            }
+        }
+        return out.flip();
+    }
+
+    // Decoded frames of a .ria file, read in order
+    public static class Reader {
+        private final ByteBuffer data;
+        private final int sectors, leds, fps, frames;
+        private int read;
+
+        private Reader(ByteBuffer data){
+            this.data = data;
+
+            if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a .ria animation");
+            }
+
+            int version = data.getShort() & 0xFFFF;
+            if (version > VERSION) throw new IllegalArgumentException("Unsupported .ria version " + version);
+
+            this.sectors = data.getShort() & 0xFFFF;
+            this.leds = data.getShort() & 0xFFFF;
+            this.fps = data.getShort() & 0xFFFF;
+            this.frames = data.getInt();
+        }
+
+        public static Reader Open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new Reader(mapped);
+            }
+        }
+
+        public int sectors(){
+            return sectors;
+        }
+
+        public int leds(){
+            return leds;
+        }
+
+        public int fps(){
+            return fps;
+        }
+
+        public int frames(){
+            return frames;
+        }
+
+        public boolean hasNext(){
+            return read < frames;
+        }
+
+        public Frame next(){
+            if (!hasNext()) throw new IllegalStateException("Read all " + frames + " frames");
+
+            int type = data.get() & 0xFF;
+            int length = data.getInt();
+            ByteBuffer payload = data.slice(data.position(), length);
+            data.position(data.position() + length);
+            read++;
+
+            if (type == KEYFRAME) return new Frame(RieFile.Wrap(payload).decode(), List.of());
+            if (type != DELTA) throw new IllegalArgumentException("Unknown frame type " + type);
+
+            int changed = payload.getShort() & 0xFFFF;
+            List<SectorDelta> deltas = new ArrayList<>(changed);
+            for (int i = 0; i < changed; i++) {
+                int sector = payload.getShort() & 0xFFFF;
+                int source = payload.getShort() & 0xFFFF;
+                if (sector >= sectors || source >= sectors) throw new IllegalArgumentException("Corrupt delta in frame " + (read - 1));
+
+                int[] runs = new int[(payload.get() & 0xFF) * 3];
+                for (int j = 0; j < runs.length; j += 3) {
+                    runs[j] = payload.get() & 0xFF;
+                    runs[j + 1] = payload.get() & 0xFF;
+                    runs[j + 2] = (payload.get() & 0xFF) << 16 | payload.getShort() & 0xFFFF;
+                    if (runs[j] >= runs[j + 1] || runs[j + 1] > leds) throw new IllegalArgumentException("Corrupt delta in frame " + (read - 1));
+                }
+                deltas.add(new SectorDelta(sector, source, runs));
+            }
+            return new Frame(null, deltas);
+        }
+    }
+}
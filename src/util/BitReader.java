@@ -0,0 +1,63 @@
+package util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/*
+ Reads bit fields from a ByteBuffer in BitWriter's order, most significant bit first.
+
+ Whole bytes are loaded ahead into a 64-bit accumulator, so a field of up to 32 bits is one shift
+ and mask. peek looks past the end of the data as zeros, which lets a decoder look up the longest
+ code near the end of a stream; read and skip past the end throw. align hands the bytes loaded
+ ahead back to the buffer, so byte-level fields after a bit stream are read from where it ended.
+ */
+public class BitReader {
+
+    private final ByteBuffer in;
+
+    private long accumulator;
+    private int available;
+
+    public BitReader(ByteBuffer in){
+        this.in = in;
+    }
+
+    // The next count bits without consuming them, count up to 32
+    public int peek(int count){
+        if (count == 0) return 0;
+
+        fill();
+        long bits = available >= count ? accumulator >>> (available - count) : accumulator << (count - available);
+        return (int) (bits & (-1L >>> (64 - count)));
+    }
+
+    public void skip(int count){
+        fill();
+        if (count > available) throw new BufferUnderflowException();
+        available -= count;
+    }
+
+    public int read(int count){
+        int value = peek(count);
+        skip(count);
+        return value;
+    }
+
+    public int readBit(){
+        return read(1);
+    }
+
+    // Drops the rest of the current byte and returns unread whole bytes to the buffer
+    public void align(){
+        in.position(in.position() - available / 8);
+        accumulator = 0;
+        available = 0;
+    }
+
+    private void fill(){
+        while (available <= 56 && in.hasRemaining()) {
+            accumulator = (accumulator << 8) | (in.get() & 0xFF);
+            available += 8;
+        }
+    }
+}
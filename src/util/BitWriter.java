@@ -0,0 +1,70 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+/*
+ Packs bit fields into a ByteBuffer, most significant bit first: the first bit written is the top
+ bit of the first byte, and a field's own top bit goes out before its lower ones, so the stream
+ reads like a big-endian number. BitReader reads the same order.
+
+ Fields collect in a 64-bit accumulator and leave 32 bits at a time; nothing reaches the buffer
+ below a whole byte until align or flush pads the stream with zeros.
+ */
+public class BitWriter {
+
+    private final ByteBuffer out;
+
+    private long accumulator;
+    private int pending;
+    private long written;
+
+    public BitWriter(ByteBuffer out){
+        this.out = out;
+    }
+
+    // Writes the low count bits of value, count up to 32
+    public void write(int value, int count){
+        if (count == 0) return;
+
+        accumulator = (accumulator << count) | (value & (-1L >>> (64 - count)));
+        pending += count;
+        written += count;
+
+        if (pending >= 32) {
+            pending -= 32;
+            out.putInt((int) (accumulator >>> pending));
+        }
+    }
+
+    public void writeBit(int bit){
+        write(bit, 1);
+    }
+
+    // Bits written since construction, padding included
+    public long written(){
+        return written;
+    }
+
+    // Pads with zeros to a multiple of bits since construction, a multiple of 8 up to 32
+    public void align(int bits){
+        int padding = (int) ((bits - written % bits) % bits);
+        while (padding > 0) {
+            int step = Math.min(padding, 32);
+            write(0, step);
+            padding -= step;
+        }
+        drain();
+    }
+
+    // Pads to a whole byte and writes everything out; the buffer is then positioned after the last byte
+    public void flush(){
+        align(8);
+    }
+
+    private void drain(){
+        while (pending >= 8) {
+            pending -= 8;
+            out.put((byte) (accumulator >>> pending));
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ Canonical Huffman coding of sector runs. Symbols are the colours of the runs, and each run is
+ stored as its code followed, after all the codes, by a length byte. Two layouts share this:
+
+ Per sector (encode), each sector carries its own table:
+
+   flags             1 byte, SIGNED_SYMBOLS when the colours only fit 24 bits sign extended (derivatives),
+                     WIDE_SYMBOLS when they do not fit 24 bits at all
+   symbols           1 byte, n
+   max length        1 byte, L
+   counts            L bytes, number of codes of each length 1..L
+   symbol list       n * 3 (or 4) bytes, big endian, sorted by code length then value
+   runs              ...
+
+ Palette (buildTable, then encodeIndexed per sector), one table for the whole frame:
+
+   table             flags 1 byte, n 4 bytes, L 1 byte, counts L * 4 bytes, symbol list as above
+   each sector       runs
+
+ where runs is
+
+   runs              1 byte, r
+   codes             r codes, MSB first, padded to a byte
+   run lengths       r bytes
+
+ Every sector is self-delimiting, so sectors can be read back to back from a file. The scratch arrays
+ are sized once and reused; nothing is allocated per sector apart from the output buffer.
+ */
+public class CanonicalHuffman implements EntropyCoder {
+
+    public static final int WIDE_SYMBOLS = 0x1;
+    public static final int SIGNED_SYMBOLS = 0x2;
+
+    private final int leds;
+
+    // Runs of the sector being coded
+    private final int[] runColor, runLength;
+    private int runs;
+
+    // Distinct run colours sorted by value, with their frequency, code length and code
+    private final int[] symbols, frequency, length, code;
+    private int count, maxLength, flags;
+
+    // Huffman construction over 2n - 1 nodes: leaves in frequency order, then internal nodes as they are made
+    private final int[] order, weight, parent;
+    private final long[] keys;
+
+    // Symbol indices in canonical order
+    private final int[] canonical;
+
+    public CanonicalHuffman(int leds){
+        this(leds, leds);
+    }
+
+    // capacity bounds the number of runs one table is built from, sectors * leds for a palette
+    public CanonicalHuffman(int leds, int capacity){
+        if (leds > 0xFF) throw new IllegalArgumentException("Canonical Huffman sectors are limited to 255 LEDs, got " + leds);
+
+        this.leds = leds;
+        this.runColor = new int[capacity];
+        this.runLength = new int[capacity];
+        this.symbols = new int[capacity];
+        this.frequency = new int[capacity];
+        this.length = new int[capacity];
+        this.code = new int[capacity];
+        this.order = new int[capacity];
+        this.keys = new long[capacity];
+        this.weight = new int[2 * capacity];
+        this.parent = new int[2 * capacity];
+        this.canonical = new int[capacity];
+    }
+
+    @Override
+    public int coding(){
+        return RieFile.PALETTE_CODING;
+    }
+
+    // Encodes leds values starting at offset with their own table; the returned buffer is ready to read
+    public ByteBuffer encode(int[] data, int offset){
+        runs = 0;
+        collectRuns(data, offset);
+        buildCodes();
+
+        ByteBuffer buffer = ByteBuffer.allocate(3 + maxLength + symbolBytes() + runBytes());
+
+        buffer.put((byte) flags);
+        buffer.put((byte) count);
+        buffer.put((byte) maxLength);
+        for (int l = 1; l <= maxLength; l++) {
+            buffer.put((byte) perLength(l));
+        }
+        putSymbols(buffer);
+        putRuns(buffer);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    // Builds one table over the runs of every sector and returns it; encodeIndexed then codes sectors against it
+    @Override
+    public ByteBuffer buildTable(PolarFrame frame){
+        runs = 0;
+        for (int i = 0; i < frame.sectors(); i++) {
+            collectRuns(frame.data(), frame.index(i, 0));
+        }
+        buildCodes();
+
+        ByteBuffer buffer = ByteBuffer.allocate(6 + maxLength * 4 + symbolBytes());
+
+        buffer.put((byte) flags);
+        buffer.putInt(count);
+        buffer.put((byte) maxLength);
+        for (int l = 1; l <= maxLength; l++) {
+            buffer.putInt(perLength(l));
+        }
+        putSymbols(buffer);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    // Encodes leds values starting at offset with the table from buildTable
+    public ByteBuffer encodeIndexed(int[] data, int offset){
+        runs = 0;
+        collectRuns(data, offset);
+
+        ByteBuffer buffer = ByteBuffer.allocate(runBytes());
+        putRuns(buffer);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    // Bytes encodeIndexed writes for leds values starting at offset, to size an output region first
+    public int indexedSize(int[] data, int offset){
+        runs = 0;
+        collectRuns(data, offset);
+        return runBytes();
+    }
+
+    // Every LED its own run with the longest code
+    @Override
+    public int maxIndexedSize(){
+        return 1 + (leds * maxLength + 7) / 8 + leds;
+    }
+
+    // As encodeIndexed, appending to out instead of allocating
+    @Override
+    public void encodeIndexed(int[] data, int offset, ByteBuffer out){
+        runs = 0;
+        collectRuns(data, offset);
+        putRuns(out);
+    }
+
+    // Decodes one sector carrying its own table into out[offset, offset + leds)
+    public static void Decode(ByteBuffer data, int[] out, int offset, int leds){
+        int flags = data.get();
+        int count = data.get() & 0xFF;
+        int maxLength = data.get() & 0xFF;
+
+        int[] perLength = new int[maxLength + 1];
+        for (int l = 1; l <= maxLength; l++) {
+            perLength[l] = data.get() & 0xFF;
+        }
+
+        int[] symbols = GetSymbols(data, count, flags);
+
+        DecodeRuns(data, perLength, maxLength, symbols, out, offset, leds);
+    }
+
+    // A table from buildTable, read once and shared by every sector of the frame
+    public static class Table implements EntropyCoder.Table {
+        private final int maxLength;
+        private final int[] perLength, symbols;
+
+        private Table(int maxLength, int[] perLength, int[] symbols){
+            this.maxLength = maxLength;
+            this.perLength = perLength;
+            this.symbols = symbols;
+        }
+
+        public static Table Read(ByteBuffer data){
+            int flags = data.get();
+            int count = data.getInt();
+            int maxLength = data.get() & 0xFF;
+
+            int[] perLength = new int[maxLength + 1];
+            for (int l = 1; l <= maxLength; l++) {
+                perLength[l] = data.getInt();
+            }
+
+            return new Table(maxLength, perLength, GetSymbols(data, count, flags));
+        }
+
+        @Override
+        public int size(){
+            return symbols.length;
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int[] out, int offset, int leds){
+            DecodeRuns(data, perLength, maxLength, symbols, out, offset, leds);
+        }
+    }
+
+    static int[] GetSymbols(ByteBuffer data, int count, int flags){
+        boolean wide = (flags & WIDE_SYMBOLS) != 0, signed = (flags & SIGNED_SYMBOLS) != 0;
+
+        int[] symbols = new int[count];
+        for (int c = 0; c < count; c++) {
+            int symbol = wide ? data.get() & 0xFF : 0;
+            symbol = (symbol << 8) | (data.get() & 0xFF);
+            symbol = (symbol << 8) | (data.get() & 0xFF);
+            symbol = (symbol << 8) | (data.get() & 0xFF);
+            symbols[c] = signed ? symbol << 8 >> 8 : symbol;
+        }
+        return symbols;
+    }
+
+    // Canonical first-code decode of each run's code, then the run lengths
+    private static void DecodeRuns(ByteBuffer data, int[] perLength, int maxLength, int[] symbols, int[] out, int offset, int leds){
+        int runs = data.get() & 0xFF;
+        int[] colors = new int[runs];
+
+        if (maxLength > 32) throw new IllegalArgumentException("Invalid canonical Huffman code");
+
+        BitReader reader = new BitReader(data);
+        for (int r = 0; r < runs; r++) {
+            // The longest code's worth of bits; value is its first l of them, first the first code of
+            // length l and index the canonical position of its symbol
+            int window = reader.peek(maxLength);
+            int first = 0, index = 0;
+            for (int l = 1; ; l++) {
+                if (l > maxLength) throw new IllegalArgumentException("Invalid canonical Huffman code");
+
+                int value = window >>> (maxLength - l);
+                if (value - first < perLength[l]) {
+                    colors[r] = symbols[index + value - first];
+                    reader.skip(l);
+                    break;
+                }
+
+                index += perLength[l];
+                first = (first + perLength[l]) << 1;
+            }
+        }
+        reader.align();
+
+        int led = 0;
+        for (int r = 0; r < runs; r++) {
+            int run = data.get() & 0xFF;
+            if (led + run > leds) throw new IllegalArgumentException("Run overflows sector of " + leds + " LEDs");
+            Arrays.fill(out, offset + led, offset + led + run, colors[r]);
+            led += run;
+        }
+    }
+
+    // Appends the runs of one sector to runColor/runLength
+    private void collectRuns(int[] data, int offset){
+        int first = runs;
+        for (int k = 0; k < leds; k++) {
+            int color = data[offset + k];
+            if (runs == first || color != runColor[runs - 1]) {
+                runColor[runs] = color;
+                runLength[runs] = 0;
+                runs++;
+            }
+            runLength[runs - 1]++;
+        }
+    }
+
+    private void buildCodes(){
+        collectSymbols();
+        buildLengths();
+        assignCodes();
+
+        maxLength = 0;
+        boolean unsigned = true, signed = true;
+        for (int s = 0; s < count; s++) {
+            maxLength = Math.max(maxLength, length[s]);
+            unsigned &= symbols[s] == (symbols[s] & 0xFFFFFF);
+            signed &= symbols[s] == (symbols[s] << 8 >> 8);
+        }
+        flags = unsigned ? 0 : signed ? SIGNED_SYMBOLS : WIDE_SYMBOLS;
+    }
+
+    private void collectSymbols(){
+        System.arraycopy(runColor, 0, symbols, 0, runs);
+        Arrays.sort(symbols, 0, runs);
+
+        count = 0;
+        for (int r = 0; r < runs; r++) {
+            if (count == 0 || symbols[count - 1] != symbols[r]) {
+                symbols[count] = symbols[r];
+                frequency[count] = 0;
+                count++;
+            }
+        }
+
+        for (int r = 0; r < runs; r++) {
+            frequency[Arrays.binarySearch(symbols, 0, count, runColor[r])]++;
+        }
+    }
+
+    // Two-queue Huffman: leaves sorted by frequency, internal nodes are created in non-decreasing weight order
+    private void buildLengths(){
+        if (count == 1) {
+            length[0] = 1;
+            return;
+        }
+
+        // Frequency in the high half, symbol in the low half, so equal frequencies keep symbol order
+        for (int s = 0; s < count; s++) {
+            keys[s] = ((long) frequency[s] << 32) | s;
+        }
+        Arrays.sort(keys, 0, count);
+
+        for (int s = 0; s < count; s++) {
+            order[s] = (int) keys[s];
+            weight[s] = frequency[order[s]];
+        }
+
+        int leaf = 0, internal = count, next = count;
+        for (int merged = 0; merged < count - 1; merged++) {
+            int first = leaf < count && (internal == next || weight[leaf] <= weight[internal]) ? leaf++ : internal++;
+            int second = leaf < count && (internal == next || weight[leaf] <= weight[internal]) ? leaf++ : internal++;
+
+            weight[next] = weight[first] + weight[second];
+            parent[first] = next;
+            parent[second] = next;
+            next++;
+        }
+
+        // Depths, reusing weight now that the tree is built; the root is the last node made
+        int root = next - 1;
+        weight[root] = 0;
+        for (int node = root - 1; node >= 0; node--) {
+            weight[node] = weight[parent[node]] + 1;
+        }
+
+        for (int s = 0; s < count; s++) {
+            length[order[s]] = weight[s];
+        }
+    }
+
+    // Canonical order is by code length, then by symbol value; codes count up within a length
+    private void assignCodes(){
+        int top = 0;
+        for (int s = 0; s < count; s++) {
+            top = Math.max(top, length[s]);
+        }
+
+        int c = 0;
+        for (int l = 1; l <= top; l++) {
+            for (int s = 0; s < count; s++) {
+                if (length[s] == l) canonical[c++] = s;
+            }
+        }
+
+        int next = 0, previous = 0;
+        for (c = 0; c < count; c++) {
+            int s = canonical[c];
+            next <<= length[s] - previous;
+            code[s] = next++;
+            previous = length[s];
+        }
+    }
+
+    private int perLength(int l){
+        int perLength = 0;
+        for (int s = 0; s < count; s++) {
+            if (length[s] == l) perLength++;
+        }
+        return perLength;
+    }
+
+    private int symbolBytes(){
+        return count * ((flags & WIDE_SYMBOLS) != 0 ? 4 : 3);
+    }
+
+    private int runBytes(){
+        int codeBits = 0;
+        for (int r = 0; r < runs; r++) {
+            codeBits += length[symbol(runColor[r])];
+        }
+        return 1 + (codeBits + 7) / 8 + runs;
+    }
+
+    private int symbol(int color){
+        int s = Arrays.binarySearch(symbols, 0, count, color);
+        if (s < 0) throw new IllegalArgumentException(String.format("Colour %x is not in the table", color));
+        return s;
+    }
+
+    private void putSymbols(ByteBuffer buffer){
+        boolean wide = (flags & WIDE_SYMBOLS) != 0;
+        for (int c = 0; c < count; c++) {
+            int symbol = symbols[canonical[c]];
+            if (wide) buffer.put((byte) (symbol >>> 24));
+            buffer.put((byte) (symbol >>> 16));
+            buffer.put((byte) (symbol >>> 8));
+            buffer.put((byte) symbol);
+        }
+    }
+
+    private void putRuns(ByteBuffer buffer){
+        buffer.put((byte) runs);
+
+        BitWriter writer = new BitWriter(buffer);
+        for (int r = 0; r < runs; r++) {
+            int s = symbol(runColor[r]);
+            writer.write(code[s], length[s]);
+        }
+        writer.flush();
+
+        for (int r = 0; r < runs; r++) {
+            buffer.put((byte) runLength[r]);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ Bounds the number of distinct colours in a sampled frame. The frame's distinct colours, weighted by
+ how many LEDs show them, are split into paletteSize boxes by median cut and then refined with k-means.
+ Every LED is replaced by the weighted mean of its cluster, so the palette stays inside the gamut the
+ sampling produced.
+
+ Distances are measured in the chosen metric. LAB treats the packed channels as linear LED intensities,
+ which is what the gamma-corrected samples are, and compares them in CIELAB (delta E 1976).
+
+ With temporal on, each frame's k-means starts from the previous frame's palette instead of a fresh
+ median cut, so a slowly changing animation keeps its colours from frame to frame.
+ */
+public class ColorQuantizer {
+
+    public enum Metric { RGB, LAB }
+
+    public static final int MAX_ITERATIONS = 10;
+
+    // Distinct colours per assignment task
+    private static final int COLORS_PER_TASK = 512;
+
+    private final int paletteSize;
+    private final Metric metric;
+    private final boolean temporal;
+
+    // Output colours of the last frame, null before the first
+    private int[] palette;
+
+    public ColorQuantizer(int paletteSize, Metric metric, boolean temporal){
+        if (paletteSize < 1) throw new IllegalArgumentException("Palette size must be positive, got " + paletteSize);
+
+        this.paletteSize = paletteSize;
+        this.metric = metric;
+        this.temporal = temporal;
+    }
+
+    public int paletteSize(){
+        return paletteSize;
+    }
+
+    public Metric metric(){
+        return metric;
+    }
+
+    public boolean temporal(){
+        return temporal;
+    }
+
+    public int[] palette(){
+        return palette;
+    }
+
+    // Quantizes frame in place; a null pool assigns on the calling thread
+    public void quantize(PolarFrame frame, ForkJoinPool pool){
+        int[] data = frame.data();
+
+        // Distinct colours and how many LEDs show each
+        int[] colors = data.clone();
+        Arrays.sort(colors);
+        int[] weights = new int[colors.length];
+        int n = 0;
+        for (int i = 0; i < colors.length; i++) {
+            if (n == 0 || colors[n - 1] != colors[i]) colors[n++] = colors[i];
+            weights[n - 1]++;
+        }
+
+        if (n <= paletteSize) {
+            palette = Arrays.copyOf(colors, n);
+            return;
+        }
+
+        double[] features = new double[n * 3];
+        for (int i = 0; i < n; i++) {
+            Feature(colors[i], metric, features, i * 3);
+        }
+
+        double[] centroids = temporal && palette != null && palette.length == paletteSize
+                ? Features(palette, metric)
+                : MedianCut(features, weights, n, paletteSize);
+        int k = centroids.length / 3;
+
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            boolean changed = assign(features, n, centroids, k, assignment, pool);
+            if (!changed && iteration > 0) break;
+
+            double[] sums = new double[k * 3];
+            long[] counts = new long[k];
+            for (int i = 0; i < n; i++) {
+                int c = assignment[i];
+                sums[c * 3] += features[i * 3] * weights[i];
+                sums[c * 3 + 1] += features[i * 3 + 1] * weights[i];
+                sums[c * 3 + 2] += features[i * 3 + 2] * weights[i];
+                counts[c] += weights[i];
+            }
+
+            // Empty clusters keep their centroid
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) continue;
+                centroids[c * 3] = sums[c * 3] / counts[c];
+                centroids[c * 3 + 1] = sums[c * 3 + 1] / counts[c];
+                centroids[c * 3 + 2] = sums[c * 3 + 2] / counts[c];
+            }
+        }
+        assign(features, n, centroids, k, assignment, pool);
+
+        // Output colour of each cluster: the weighted mean of its members per channel
+        long[] red = new long[k], green = new long[k], blue = new long[k], counts = new long[k];
+        for (int i = 0; i < n; i++) {
+            int c = assignment[i];
+            red[c] += (long) ((colors[i] >> 16) & 0xFF) * weights[i];
+            green[c] += (long) ((colors[i] >> 8) & 0xFF) * weights[i];
+            blue[c] += (long) (colors[i] & 0xFF) * weights[i];
+            counts[c] += weights[i];
+        }
+
+        int[] output = new int[k];
+        for (int c = 0; c < k; c++) {
+            if (counts[c] == 0) {
+                output[c] = palette != null && c < palette.length ? palette[c] : 0;
+                continue;
+            }
+            output[c] = TransformationUtils.CombineRGB(
+                    (int) Math.round((double) red[c] / counts[c]),
+                    (int) Math.round((double) green[c] / counts[c]),
+                    (int) Math.round((double) blue[c] / counts[c]));
+        }
+        palette = output;
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = output[assignment[Arrays.binarySearch(colors, 0, n, data[i])]];
+        }
+    }
+
+    // Nearest centroid for every colour; returns whether any assignment changed
+    private boolean assign(double[] features, int n, double[] centroids, int k, int[] assignment, ForkJoinPool pool){
+        AssignTask task = new AssignTask(features, centroids, k, assignment, 0, n);
+        if (pool == null || pool.getParallelism() <= 1) task.compute();
+        else pool.invoke(task);
+        return task.changed;
+    }
+
+    @SuppressWarnings("serial")
+    private static class AssignTask extends RecursiveAction {
+        private final double[] features, centroids;
+        private final int k;
+        private final int[] assignment;
+        private final int start, end;
+
+        private boolean changed;
+
+        private AssignTask(double[] features, double[] centroids, int k, int[] assignment, int start, int end){
+            this.features = features;
+            this.centroids = centroids;
+            this.k = k;
+            this.assignment = assignment;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute(){
+            if (end - start > COLORS_PER_TASK) {
+                int middle = (start + end) >>> 1;
+                AssignTask left = new AssignTask(features, centroids, k, assignment, start, middle);
+                AssignTask right = new AssignTask(features, centroids, k, assignment, middle, end);
+                invokeAll(left, right);
+                changed = left.changed || right.changed;
+                return;
+            }
+
+            for (int i = start; i < end; i++) {
+                double x = features[i * 3], y = features[i * 3 + 1], z = features[i * 3 + 2];
+                int best = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int c = 0; c < k; c++) {
+                    // Partial distances: most centroids are ruled out on the first axis or two
+                    double dx = x - centroids[c * 3];
+                    double distance = dx * dx;
+                    if (distance >= bestDistance) continue;
+                    double dy = y - centroids[c * 3 + 1];
+                    distance += dy * dy;
+                    if (distance >= bestDistance) continue;
+                    double dz = z - centroids[c * 3 + 2];
+                    distance += dz * dz;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = c;
+                    }
+                }
+
+                if (assignment[i] != best) {
+                    assignment[i] = best;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // Splits the weighted colours into up to k boxes, always cutting the box with the widest axis at its weighted median
+    static double[] MedianCut(double[] features, int[] weights, int n, int k){
+        int[] index = new int[n];
+        for (int i = 0; i < n; i++) index[i] = i;
+
+        int[] boxStart = new int[k], boxEnd = new int[k];
+        boxEnd[0] = n;
+        int boxes = 1;
+
+        while (boxes < k) {
+            int widest = -1, widestAxis = 0;
+            double widestRange = 0;
+            for (int b = 0; b < boxes; b++) {
+                if (boxEnd[b] - boxStart[b] < 2) continue;
+                for (int axis = 0; axis < 3; axis++) {
+                    double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+                    for (int i = boxStart[b]; i < boxEnd[b]; i++) {
+                        double value = features[index[i] * 3 + axis];
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                    if (max - min > widestRange) {
+                        widestRange = max - min;
+                        widest = b;
+                        widestAxis = axis;
+                    }
+                }
+            }
+            if (widest < 0) break;
+
+            int start = boxStart[widest], end = boxEnd[widest], axis = widestAxis;
+            Integer[] sorted = new Integer[end - start];
+            for (int i = start; i < end; i++) sorted[i - start] = index[i];
+            Arrays.sort(sorted, (a, b) -> Double.compare(features[a * 3 + axis], features[b * 3 + axis]));
+
+            long total = 0;
+            for (int i : sorted) total += weights[i];
+
+            // Weighted median, leaving at least one colour on each side
+            int split = 1;
+            long running = weights[sorted[0]];
+            while (split < sorted.length - 1 && running * 2 < total) {
+                running += weights[sorted[split]];
+                split++;
+            }
+
+            for (int i = 0; i < sorted.length; i++) index[start + i] = sorted[i];
+            boxEnd[widest] = start + split;
+            boxStart[boxes] = start + split;
+            boxEnd[boxes] = end;
+            boxes++;
+        }
+
+        double[] centroids = new double[boxes * 3];
+        for (int b = 0; b < boxes; b++) {
+            long total = 0;
+            for (int i = boxStart[b]; i < boxEnd[b]; i++) {
+                int color = index[i];
+                centroids[b * 3] += features[color * 3] * weights[color];
+                centroids[b * 3 + 1] += features[color * 3 + 1] * weights[color];
+                centroids[b * 3 + 2] += features[color * 3 + 2] * weights[color];
+                total += weights[color];
+            }
+            centroids[b * 3] /= total;
+            centroids[b * 3 + 1] /= total;
+            centroids[b * 3 + 2] /= total;
+        }
+        return centroids;
+    }
+
+    static double[] Features(int[] colors, Metric metric){
+        double[] features = new double[colors.length * 3];
+        for (int i = 0; i < colors.length; i++) {
+            Feature(colors[i], metric, features, i * 3);
+        }
+        return features;
+    }
+
+    static void Feature(int color, Metric metric, double[] out, int offset){
+        double r = (color >> 16) & 0xFF, g = (color >> 8) & 0xFF, b = color & 0xFF;
+
+        if (metric == Metric.RGB) {
+            out[offset] = r;
+            out[offset + 1] = g;
+            out[offset + 2] = b;
+            return;
+        }
+
+        r /= 255;
+        g /= 255;
+        b /= 255;
+
+        // Linear RGB to XYZ (D65), relative to the white point
+        double x = (0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / 0.95047;
+        double y = 0.2126729 * r + 0.7151522 * g + 0.0721750 * b;
+        double z = (0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / 1.08883;
+
+        double fx = LabCurve(x), fy = LabCurve(y), fz = LabCurve(z);
+        out[offset] = 116 * fy - 16;
+        out[offset + 1] = 500 * (fx - fy);
+        out[offset + 2] = 200 * (fy - fz);
+    }
+
+    private static double LabCurve(double t){
+        return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
+    }
+}
@@ -5,9 +5,11 @@ import javafx.util.Pair;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
 
@@ -27,25 +29,67 @@ public class EncodingUtils {
         }
     }
 
+    // Per-thread scratch for encoders that only know an upper bound of their output; never handed out
+    private static final ThreadLocal<ByteBuffer> OUTPUT = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(0));
+
+    static ByteBuffer Output(int size){
+        ByteBuffer output = OUTPUT.get();
+        if (output.capacity() < size) {
+            output = ByteBuffer.allocateDirect(Math.max(size, output.capacity() * 2));
+            OUTPUT.set(output);
+        }
+        return output.clear();
+    }
+
     public static void WriteToFile(String name, HashMap<Integer, ByteBuffer> encoded) throws IOException{
+        ArrayList<ByteBuffer> buffers = new ArrayList<>();
+        for(int i : encoded.keySet()) {
+            buffers.add(encoded.get(i));
+        }
+        WriteAtomically(Paths.get(name), buffers.toArray(new ByteBuffer[0]));
+    }
 
-        Path path = Paths.get(name);
-        Files.deleteIfExists(path);
+    // Writes buffers to a temporary file beside path with one gathering write, syncs it and renames it
+    // over path, so readers see the old file or the whole new one and never a partial write.
+    // The buffers' positions are left alone.
+    public static void WriteAtomically(Path path, ByteBuffer... buffers) throws IOException {
+        ByteBuffer[] sources = new ByteBuffer[buffers.length];
+        long remaining = 0;
+        for(int i = 0; i < buffers.length; i++){
+            sources[i] = buffers[i].duplicate();
+            remaining += sources[i].remaining();
+        }
 
-        Set<StandardOpenOption> options = new HashSet<>();
-        options.add(StandardOpenOption.CREATE);
-        options.add(StandardOpenOption.APPEND);
-        FileChannel fileChannel = FileChannel.open(path, options);
+        // Not Files.createTempFile, which would leave the published file readable by its owner only
+        Path temp = path.toAbsolutePath().resolveSibling("." + path.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                while(remaining > 0) {
+                    remaining -= channel.write(sources);
+                }
+                channel.force(true);
+            }
 
-        for(int i : encoded.keySet()) {
-            fileChannel.write(encoded.get(i));
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
         }
+    }
 
-        fileChannel.close();
+    public static void HuffmanEncode(HashMap<Integer, ArrayList<Integer>> samples, HashMap<Integer, ByteBuffer> encoded, int sectors){
+        HuffmanEncode(PolarFrame.FromMap(samples, sectors), encoded, sectors);
     }
 
+    // Sectors are coded into per-thread scratch, then packed into one buffer the returned slices own
+    public static void HuffmanEncode(PolarFrame samples, HashMap<Integer, ByteBuffer> encoded, int sectors){
 
-    public static void HuffmanEncode(HashMap<Integer, ArrayList<Integer>> samples, HashMap<Integer, ByteBuffer> encoded, int sectors){
+        ByteBuffer output = Output(sectors * samples.leds() * 12);
+        ByteBuffer[] coded = new ByteBuffer[sectors];
+        int size = 0;
 
         for(int i = 0; i < sectors; i++){
 
@@ -53,13 +97,14 @@ public class EncodingUtils {
             HashMap<Integer, Integer> frequency = new HashMap<>();
             LinkedHashMap<Integer, Integer> runLength = new LinkedHashMap<>();
 
-            ArrayList<Integer> curr = samples.get(i);
+            PolarFrame.View curr = samples.sector(i);
 
             int index = 0;
             int prevColor = 0;
 
             // Frequency Analysis/Run Length Encoding
-            for(int color : curr){
+            for(int k = 0; k < curr.size(); k++){
+                int color = curr.get(k);
                 frequency.putIfAbsent(color, 0);
                 frequency.put(color, frequency.get(color) + 1);
 
@@ -91,106 +136,109 @@ public class EncodingUtils {
             // Huffman Encoding Extraction
             HashMap<Integer, Pair<Integer, Integer>> codes = HuffmanCodes(root);
 
-            // Encoded message
-            ByteBuffer codedBuffer = ByteBuffer.allocate(samples.get(i).size() * 12);
+            // Encoded message, in this sector's share of the frame's output region
+            ByteBuffer codedBuffer = output.slice(i * curr.size() * 12, curr.size() * 12);
 
-            byte toPush = 0;
-            int position = 0;
+            BitWriter writer = new BitWriter(codedBuffer);
 
-            HuffmanTreeEncode(root, codedBuffer);
+            HuffmanTreeEncode(root, writer);
 
             for(int color : runLength.keySet()){
                 Pair<Integer, Integer> code = codes.get(color);
-                int trueCode = code.getKey();
-
-                for(int j = 0; j < code.getValue(); j++){
-                    toPush |= trueCode & 1;
-                    toPush <<= 1;
-                    trueCode >>= 1;
-                    position++;
-
-                    if(position == 8) {
-                        codedBuffer.put(toPush);
-                        position = 0;
-                        toPush = 0;
-                    }
-                }
-            }
-
-            if(position != 0){
-                codedBuffer.put(toPush);
+                writer.write(code.getKey(), code.getValue());
             }
+            writer.flush();
 
             for(int color : runLength.keySet()){
                 codedBuffer.put((byte)(runLength.get(color) & 0xFF));
             }
 
-            ByteBuffer trueBuffer = ByteBuffer.allocate(codedBuffer.position());
-            trueBuffer.put(0, codedBuffer, 0, codedBuffer.position());
+            coded[i] = codedBuffer.flip();
+            size += coded[i].remaining();
+        }
+
+        ByteBuffer packed = ByteBuffer.allocate(size);
+        for(int i = 0; i < sectors; i++){
+            int start = packed.position();
+            packed.put(coded[i]);
+            encoded.put(i, packed.slice(start, packed.position() - start));
+        }
+
+    }
+
+    // Smaller, table-driven alternative to HuffmanEncode; see CanonicalHuffman for the sector layout
+    public static void CanonicalHuffmanEncode(PolarFrame samples, HashMap<Integer, ByteBuffer> encoded, int sectors){
+        CanonicalHuffman coder = new CanonicalHuffman(samples.leds());
+        for(int i = 0; i < sectors; i++){
+            encoded.put(i, coder.encode(samples.data(), samples.index(i, 0)));
+        }
+    }
+
+    // Reads sectors back to back from data into frame, leaving data positioned after the last one
+    public static void CanonicalHuffmanDecode(ByteBuffer data, PolarFrame frame, int sectors){
+        for(int i = 0; i < sectors; i++){
+            CanonicalHuffman.Decode(data, frame.data(), frame.index(i, 0), frame.leds());
+        }
+    }
 
-            encoded.put(i, trueBuffer);
+    public static long EncodedSize(HashMap<Integer, ByteBuffer> encoded){
+        long size = 0;
+        for(ByteBuffer sector : encoded.values()){
+            size += sector.remaining();
         }
+        return size;
+    }
 
+    // One palette and code table for the whole frame, returned for the file header; sectors are coded against it
+    public static ByteBuffer PaletteHuffmanEncode(PolarFrame samples, HashMap<Integer, ByteBuffer> encoded, int sectors){
+        return EntropyEncode(new CanonicalHuffman(samples.leds(), samples.sectors() * samples.leds()), samples, encoded, sectors);
+    }
 
+    // As PaletteHuffmanEncode with rANS models for run colours and lengths; see RansCoder
+    public static ByteBuffer RansEncode(PolarFrame samples, HashMap<Integer, ByteBuffer> encoded, int sectors){
+        return EntropyEncode(new RansCoder(samples.leds()), samples, encoded, sectors);
     }
 
-    private static void HuffmanTreeEncode(Node root, ByteBuffer codedBuffer) {
-        Node positionTracker = new Node(0, 0);
-        HuffmanEncodingHelper(root, positionTracker, codedBuffer);
+    // Builds coder's table over the frame and returns it for the file header; sectors are coded against it.
+    // Sectors are coded once, back to back into the scratch, then copied into one buffer the slices share.
+    public static ByteBuffer EntropyEncode(EntropyCoder coder, PolarFrame samples, HashMap<Integer, ByteBuffer> encoded, int sectors){
+        ByteBuffer table = coder.buildTable(samples);
 
-        if(positionTracker.frequency != 0){
-            while(positionTracker.frequency < 32){
-                positionTracker.value <<= 1;
-                positionTracker.frequency++;
-            }
-            codedBuffer.putInt(positionTracker.value);
+        ByteBuffer scratch = Output(sectors * coder.maxIndexedSize());
+        int[] ends = new int[sectors];
+        for(int i = 0; i < sectors; i++){
+            coder.encodeIndexed(samples.data(), samples.index(i, 0), scratch);
+            ends[i] = scratch.position();
         }
 
+        ByteBuffer output = ByteBuffer.allocate(scratch.flip().remaining()).put(scratch);
+        for(int i = 0; i < sectors; i++){
+            int start = i == 0 ? 0 : ends[i - 1];
+            encoded.put(i, output.slice(start, ends[i] - start));
+        }
+        return table;
     }
 
-    private static void HuffmanEncodingHelper(Node root, Node pt, ByteBuffer codedBuffer){
-        if(root.left == null && root.right == null){
-            pt.value <<= 1;
-            pt.frequency++;
-            pt.value += 1;
-            if(pt.frequency >= 32){
-                codedBuffer.putInt(pt.value);
-                pt.value = 0;
-                pt.frequency = 0;
-            }
+    // Pre-order: a 1 and the 24-bit colour for a leaf, a 0 before each child; padded to 32 bits
+    private static void HuffmanTreeEncode(Node root, BitWriter writer) {
+        HuffmanEncodingHelper(root, writer);
+        writer.align(32);
+    }
 
-            for(int i = 23; i >= 0; i--){
-                pt.value <<= 1;
-                pt.frequency++;
-                pt.value += root.value >> i & 0x1;
-                if(pt.frequency >= 32){
-                    codedBuffer.putInt(pt.value);
-                    pt.value = 0;
-                    pt.frequency = 0;
-                }
-            }
+    private static void HuffmanEncodingHelper(Node root, BitWriter writer){
+        if(root.left == null && root.right == null){
+            writer.writeBit(1);
+            writer.write(root.value, 24);
         }
 
         if(root.left != null){
-            pt.value <<= 1;
-            pt.frequency += 1;
-            if(pt.frequency >= 32){
-                codedBuffer.putInt(pt.value);
-                pt.value = 0;
-                pt.frequency = 0;
-            }
-            HuffmanEncodingHelper(root.left, pt, codedBuffer);
+            writer.writeBit(0);
+            HuffmanEncodingHelper(root.left, writer);
         }
 
         if(root.right != null){
-            pt.value <<= 1;
-            pt.frequency += 1;
-            if(pt.frequency >= 32){
-                codedBuffer.putInt(pt.value);
-                pt.value = 0;
-                pt.frequency = 0;
-            }
-            HuffmanEncodingHelper(root.right, pt, codedBuffer);
+            writer.writeBit(0);
+            HuffmanEncodingHelper(root.right, writer);
         }
 
     }
@@ -217,7 +265,7 @@ public class EncodingUtils {
 
         if(root.left == null && root.right == null){
             codes.put(root.value, new Pair<>(code, length));
-            System.out.println(String.format("%x %s %d", root.value, Integer.toBinaryString(code), length));
+            //System.out.println(String.format("%x %s %d", root.value, Integer.toBinaryString(code), length));
         }
     }
 }
@@ -0,0 +1,29 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+/*
+ A frame-wide entropy coder for sector runs: one table is built over the whole frame, written once
+ into the .rie header, and every sector is coded against it on its own, so a sector still decodes
+ without its neighbours. coding() is the id RieFile records for files written with the coder.
+ */
+public interface EntropyCoder {
+
+    int coding();
+
+    // Builds the model over every sector of frame and returns its serialized table
+    ByteBuffer buildTable(PolarFrame frame);
+
+    // Most bytes encodeIndexed writes for any one sector once buildTable has run, to bound a scratch region
+    int maxIndexedSize();
+
+    // Codes the sector at offset against the table from buildTable, appending to out
+    void encodeIndexed(int[] data, int offset, ByteBuffer out);
+
+    // A table read back from a file, shared by every sector of the frame
+    interface Table {
+        int size();
+
+        void decode(ByteBuffer data, int[] out, int offset, int leds);
+    }
+}
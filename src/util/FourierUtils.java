@@ -1,7 +1,8 @@
 package util;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FourierUtils {
 
@@ -45,6 +46,22 @@ public class FourierUtils {
         return dimmed;
     }
 
+    public static void scale(PolarFrame colors, double scale, PolarFrame dimmed){
+        int[] in = colors.data(), out = dimmed.data();
+
+        for(int i = 0; i < in.length; i++){
+            int redSample = (in[i] >> 16) & 0xFF;
+            int greenSample = (in[i] >> 8) & 0xFF;
+            int blueSample = in[i] & 0xFF;
+
+            int value = (int) (redSample * scale);
+            value = ((value << 8) + (int) (greenSample * scale));
+            value = ((value << 8) + (int) (blueSample * scale));
+
+            out[i] = value;
+        }
+    }
+
     public static double clamp(double value, double max, double min){
         if(value > max) return max;
         if(value < min) return min;
@@ -53,100 +70,326 @@ public class FourierUtils {
 
     public static ArrayList<Complex> DFT(ArrayList<Double> samples) {
 
+        double[] real = new double[samples.size()], imag = new double[samples.size()];
+
+        DFT(toArray(samples), real, imag);
+
         ArrayList<Complex> transformed = new ArrayList<>();
+        for(int i = 0; i < real.length; i++) {
+            transformed.add(new Complex(real[i], imag[i]));
+        }
 
-        double maxReal = Double.MIN_VALUE, minReal = Double.MAX_VALUE, maxImaginary = Double.MIN_VALUE, minImaginary = Double.MAX_VALUE;
+        return transformed;
+    }
 
-        for(int i = 0; i < samples.size(); i++) {
-            double next = 0;
-            double nextSin = 0;
-            for (int j = 0; j < samples.size(); j++) {
-                next += samples.get(j) * Math.cos(2 * Math.PI * i * j / samples.size());
-                nextSin += samples.get(j) * Math.sin(2 * Math.PI * i * j / samples.size());
-            }
 
-            if(next > maxReal) maxReal = next;
-            if(next < minReal) minReal = next;
-            if(nextSin > maxImaginary) maxImaginary = nextSin;
-            if(nextSin < minImaginary) minImaginary = nextSin;
+    public static ArrayList<Complex> DCT(ArrayList<Double> samples) {
+
+        double[] real = new double[samples.size()], imag = new double[samples.size()];
+
+        DCT(toArray(samples), real, imag);
 
-            transformed.add(new Complex(next, nextSin));
+        ArrayList<Complex> transformed = new ArrayList<>();
+        for(int i = 0; i < real.length; i++) {
+            transformed.add(new Complex(real[i], 0));
         }
 
         return transformed;
     }
 
 
-    public static ArrayList<Complex> DCT(ArrayList<Double> samples) {
+    public static ArrayList<Double> iDFT(ArrayList<Complex> samples, int filterStart, int filterEnd, boolean inclusive) {
 
-        ArrayList<Complex> transformed = new ArrayList<>();
+        double[] real = new double[samples.size()], imag = new double[samples.size()], transformed = new double[samples.size()];
+        for(int i = 0; i < real.length; i++) {
+            real[i] = samples.get(i).real;
+            imag[i] = samples.get(i).imag;
+        }
+
+        iDFT(real, imag, transformed, filterStart, filterEnd, inclusive);
+
+        return toList(transformed);
+    }
+
+    public static ArrayList<Double> iDCT(ArrayList<Complex> samples, int filterStart, int filterEnd, boolean inclusive) {
+
+        double[] real = new double[samples.size()], transformed = new double[samples.size()];
+        for(int i = 0; i < real.length; i++) {
+            real[i] = samples.get(i).real;
+        }
+
+        iDCT(real, transformed, filterStart, filterEnd, inclusive);
+
+        return toList(transformed);
+    }
+
+    // real = sum x cos(2 pi i j / n), imag = sum x sin(2 pi i j / n)
+    public static void DFT(double[] samples, double[] real, double[] imag) {
+
+        int n = samples.length;
+
+        System.arraycopy(samples, 0, real, 0, n);
+        Arrays.fill(imag, 0, n, 0);
+
+        FFT(real, imag);
+
+        for(int i = 0; i < n; i++) {
+            imag[i] = -imag[i];
+        }
+
+        // DC as a plain sum so integer-valued blocks stay exact
+        real[0] = sum(samples);
+        imag[0] = 0;
+    }
+
+    // DCT-II, real = sum x cos(pi i (j + 0.5) / n), truncated to integers
+    public static void DCT(double[] samples, double[] real, double[] imag) {
+
+        int n = samples.length;
+        double[] vReal = new double[n], vImag = new double[n];
+
+        // Makhoul: even samples ascending, odd samples descending, then one n-point FFT
+        for(int j = 0; 2 * j < n; j++) vReal[j] = samples[2 * j];
+        for(int j = 0; 2 * j + 1 < n; j++) vReal[n - 1 - j] = samples[2 * j + 1];
+
+        FFT(vReal, vImag);
+
+        double[][] shift = QuarterShift(n);
+        for(int i = 0; i < n; i++) {
+            real[i] = truncate(vReal[i] * shift[0][i] + vImag[i] * shift[1][i]);
+            imag[i] = 0;
+        }
+
+        real[0] = (int) sum(samples);
+    }
+
+    public static void iDFT(double[] real, double[] imag, double[] transformed, int filterStart, int filterEnd, boolean inclusive) {
 
-        double max = Double.MIN_VALUE, min = Double.MAX_VALUE;
+        int n = real.length;
+        double[] fReal = new double[n], fImag = new double[n];
 
-        HashSet<Integer> counter = new HashSet<>();
+        for (int j = 0; j < n; j++) {
 
-        for(int i = 0; i < samples.size(); i++) {
-            double next = 0;
-            for (int j = 0; j < samples.size(); j++) {
-                next += samples.get(j) * Math.cos(Math.PI * i * (j + 0.5) / samples.size());
+            boolean inclusiveCase = (inclusive && j >= filterStart && j <= filterEnd);
+            boolean exclusiveCase = (!inclusive && (j <= filterStart || j >= filterEnd));
+
+            if(inclusiveCase || exclusiveCase) {
+                fReal[j] = real[j];
+                fImag[j] = -imag[j];
             }
+        }
+
+        iFFT(fReal, fImag);
+
+        System.arraycopy(fReal, 0, transformed, 0, n);
+    }
+
+    // DCT-III scaled by 2 / n, the inverse of DCT; coefficient 0 is always kept
+    public static void iDCT(double[] real, double[] transformed, int filterStart, int filterEnd, boolean inclusive) {
+
+        int n = real.length;
+        double[] filtered = new double[n];
+        filtered[0] = real[0];
 
-            if(next > max) max = next;
-            if(next < min) min = next;
+        for (int j = 1; j < n; j++) {
 
-            counter.add((int) next);
+            boolean inclusiveCase = (inclusive && j >= filterStart && j <= filterEnd);
+            boolean exclusiveCase = (!inclusive && (j <= filterStart || j >= filterEnd));
 
-            transformed.add(new Complex((int)next, 0));
+            if(inclusiveCase || exclusiveCase)
+                filtered[j] = real[j];
         }
 
+        double[][] shift = QuarterShift(n);
+        double[] vReal = new double[n], vImag = new double[n];
 
-        //System.out.println(counter.size());
-        //System.out.println(counter.size());
+        // V_k = e^(i pi k / 2n) (X_k - i X_(n-k))
+        for(int k = 0; k < n; k++) {
+            double a = filtered[k], b = k == 0 ? 0 : -filtered[n - k];
+            vReal[k] = a * shift[0][k] - b * shift[1][k];
+            vImag[k] = a * shift[1][k] + b * shift[0][k];
+        }
 
-        return transformed;
+        iFFT(vReal, vImag);
+
+        for(int j = 0; 2 * j < n; j++) transformed[2 * j] = vReal[j];
+        for(int j = 0; 2 * j + 1 < n; j++) transformed[2 * j + 1] = vReal[n - 1 - j];
     }
 
+    // In-place forward transform, X_k = sum x_j e^(-2 pi i jk / n), for any n
+    public static void FFT(double[] real, double[] imag) {
+        int n = real.length;
+        if(n <= 1) return;
 
-    public static ArrayList<Double> iDFT(ArrayList<Complex> samples, int filterStart, int filterEnd, boolean inclusive) {
+        if((n & (n - 1)) == 0) Radix2(real, imag, false);
+        else Bluestein.Of(n).transform(real, imag);
+    }
 
-        ArrayList<Double> transformed = new ArrayList<>();
+    // In-place inverse transform including the 1 / n scale
+    public static void iFFT(double[] real, double[] imag) {
+        int n = real.length;
 
-        for(int i = 0; i < samples.size(); i++) {
-            double next = 0;
-            for (int j = 0; j < samples.size(); j++) {
+        // conj(FFT(conj(X))) / n
+        for(int i = 0; i < n; i++) imag[i] = -imag[i];
+        FFT(real, imag);
+        for(int i = 0; i < n; i++) {
+            real[i] /= n;
+            imag[i] = -imag[i] / n;
+        }
+    }
+
+    private static final ConcurrentHashMap<Integer, double[][]> twiddles = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, double[][]> quarterShifts = new ConcurrentHashMap<>();
+
+    // cos and sin of 2 pi k / n for k < n / 2
+    private static double[][] Twiddles(int n) {
+        return twiddles.computeIfAbsent(n, (size) -> {
+            double[][] table = new double[2][size / 2];
+            for(int k = 0; k < size / 2; k++) {
+                table[0][k] = Math.cos(2 * Math.PI * k / size);
+                table[1][k] = Math.sin(2 * Math.PI * k / size);
+            }
+            return table;
+        });
+    }
+
+    // cos and sin of pi k / 2n, the DCT output rotation
+    private static double[][] QuarterShift(int n) {
+        return quarterShifts.computeIfAbsent(n, (size) -> {
+            double[][] table = new double[2][size];
+            for(int k = 0; k < size; k++) {
+                table[0][k] = Math.cos(Math.PI * k / (2.0 * size));
+                table[1][k] = Math.sin(Math.PI * k / (2.0 * size));
+            }
+            return table;
+        });
+    }
+
+    private static void Radix2(double[] real, double[] imag, boolean inverse) {
+        int n = real.length;
 
-                boolean inclusiveCase = (inclusive && j >= filterStart && j <= filterEnd);
-                boolean exclusiveCase = (!inclusive && (j <= filterStart || j >= filterEnd));
+        for(int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for(; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
 
-                if(inclusiveCase || exclusiveCase)
-                    next += samples.get(j).real * Math.cos(2 * Math.PI * i * j / samples.size())  + samples.get(j).imag * Math.sin(2 * Math.PI * i * j / samples.size());
+            if(i < j) {
+                double t = real[i]; real[i] = real[j]; real[j] = t;
+                t = imag[i]; imag[i] = imag[j]; imag[j] = t;
             }
-            next /= samples.size();
-            transformed.add(next);
         }
 
-        return transformed;
+        double[][] table = Twiddles(n);
+        double[] cos = table[0], sin = table[1];
+        double sign = inverse ? 1 : -1;
+
+        for(int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1, step = n / len;
+            for(int i = 0; i < n; i += len) {
+                for(int k = 0; k < half; k++) {
+                    double wr = cos[k * step], wi = sign * sin[k * step];
+                    int a = i + k, b = a + half;
+                    double tr = real[b] * wr - imag[b] * wi;
+                    double ti = real[b] * wi + imag[b] * wr;
+                    real[b] = real[a] - tr;
+                    imag[b] = imag[a] - ti;
+                    real[a] += tr;
+                    imag[a] += ti;
+                }
+            }
+        }
     }
 
-    public static ArrayList<Double> iDCT(ArrayList<Complex> samples, int filterStart, int filterEnd, boolean inclusive) {
+    // Chirp-z evaluation of an arbitrary length DFT through power of two convolutions
+    private static final class Bluestein {
+
+        private static final ConcurrentHashMap<Integer, Bluestein> plans = new ConcurrentHashMap<>();
+
+        private final int n, m;
+        private final double[] chirpReal, chirpImag;
+        private final double[] kernelReal, kernelImag;
 
-        ArrayList<Double> transformed = new ArrayList<>();
+        private Bluestein(int n) {
+            this.n = n;
 
-        for(int i = 0; i < samples.size(); i++) {
-            double next = 0.5 * samples.get(0).real;
-            for (int j = 1; j < samples.size(); j++) {
+            int size = 1;
+            while(size < 2 * n - 1) size <<= 1;
+            this.m = size;
 
-                boolean inclusiveCase = (inclusive && j >= filterStart && j <= filterEnd);
-                boolean exclusiveCase = (!inclusive && (j <= filterStart || j >= filterEnd));
+            chirpReal = new double[n];
+            chirpImag = new double[n];
+            for(int k = 0; k < n; k++) {
+                // k^2 mod 2n keeps the angle small and exact
+                long square = (long) k * k % (2L * n);
+                double angle = Math.PI * square / n;
+                chirpReal[k] = Math.cos(angle);
+                chirpImag[k] = -Math.sin(angle);
+            }
 
-                if(inclusiveCase || exclusiveCase)
-                    next += samples.get(j).real * Math.cos(Math.PI * (i + 0.5) * j / samples.size());
+            kernelReal = new double[m];
+            kernelImag = new double[m];
+            kernelReal[0] = chirpReal[0];
+            kernelImag[0] = -chirpImag[0];
+            for(int k = 1; k < n; k++) {
+                kernelReal[k] = kernelReal[m - k] = chirpReal[k];
+                kernelImag[k] = kernelImag[m - k] = -chirpImag[k];
             }
-            next *= 2.0 / samples.size();
-            transformed.add(next);
+            Radix2(kernelReal, kernelImag, false);
         }
 
-        return transformed;
+        static Bluestein Of(int n) {
+            return plans.computeIfAbsent(n, Bluestein::new);
+        }
+
+        void transform(double[] real, double[] imag) {
+            double[] aReal = new double[m], aImag = new double[m];
+
+            for(int k = 0; k < n; k++) {
+                aReal[k] = real[k] * chirpReal[k] - imag[k] * chirpImag[k];
+                aImag[k] = real[k] * chirpImag[k] + imag[k] * chirpReal[k];
+            }
+
+            Radix2(aReal, aImag, false);
+
+            for(int k = 0; k < m; k++) {
+                double r = aReal[k] * kernelReal[k] - aImag[k] * kernelImag[k];
+                double i = aReal[k] * kernelImag[k] + aImag[k] * kernelReal[k];
+                aReal[k] = r;
+                aImag[k] = i;
+            }
+
+            Radix2(aReal, aImag, true);
+
+            for(int k = 0; k < n; k++) {
+                double r = aReal[k] / m, i = aImag[k] / m;
+                real[k] = r * chirpReal[k] - i * chirpImag[k];
+                imag[k] = r * chirpImag[k] + i * chirpReal[k];
+            }
+        }
+    }
+
+    // Integer part, treating values within rounding error of an integer as that integer
+    static int truncate(double value) {
+        double nearest = Math.rint(value);
+        return Math.abs(value - nearest) < 1e-9 ? (int) nearest : (int) value;
+    }
+
+    private static double sum(double[] samples) {
+        double total = 0;
+        for(double sample : samples) total += sample;
+        return total;
+    }
+
+    private static double[] toArray(ArrayList<Double> samples) {
+        double[] values = new double[samples.size()];
+        for(int i = 0; i < values.length; i++) values[i] = samples.get(i);
+        return values;
+    }
+
+    private static ArrayList<Double> toList(double[] values) {
+        ArrayList<Double> list = new ArrayList<>(values.length);
+        for(double value : values) list.add(value);
+        return list;
     }
 
 }
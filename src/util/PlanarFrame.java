@@ -0,0 +1,73 @@
+package util;
+
+import java.util.Arrays;
+
+public class PlanarFrame {
+
+    private final int sectors, leds;
+
+    // One plane per channel, laid out like PolarFrame (sector * leds + led); values may be signed
+    private final int[] red, green, blue;
+
+    public PlanarFrame(int sectors, int leds){
+        this.sectors = sectors;
+        this.leds = leds;
+        this.red = new int[sectors * leds];
+        this.green = new int[sectors * leds];
+        this.blue = new int[sectors * leds];
+    }
+
+    public static PlanarFrame Split(PolarFrame frame){
+        PlanarFrame planes = new PlanarFrame(frame.sectors(), frame.leds());
+        planes.split(frame);
+        return planes;
+    }
+
+    public int sectors(){
+        return sectors;
+    }
+
+    public int leds(){
+        return leds;
+    }
+
+    public int[] red(){
+        return red;
+    }
+
+    public int[] green(){
+        return green;
+    }
+
+    public int[] blue(){
+        return blue;
+    }
+
+    public int[] plane(int channel){
+        return channel == 0 ? red : channel == 1 ? green : blue;
+    }
+
+    public void clear(){
+        Arrays.fill(red, 0);
+        Arrays.fill(green, 0);
+        Arrays.fill(blue, 0);
+    }
+
+    // Unpacks 0xRRGGBB cells into the planes
+    public void split(PolarFrame frame){
+        int[] data = frame.data();
+        for(int i = 0; i < data.length; i++){
+            red[i] = (data[i] >> 16) & 0xFF;
+            green[i] = (data[i] >> 8) & 0xFF;
+            blue[i] = data[i] & 0xFF;
+        }
+    }
+
+    // Packs the planes with TransformationUtils.CombineRGB, so signed channels borrow like they always have
+    public void pack(PolarFrame frame){
+        int[] data = frame.data();
+        for(int i = 0; i < data.length; i++){
+            data[i] = (((red[i] << 8) + green[i]) << 8) + blue[i];
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class PolarFrame {
+
+    // Strided window onto a frame: one sector (LEDs along an arm) or one ring (same LED across sectors)
+    public interface View {
+        int get(int i);
+        void set(int i, int value);
+        int index(int i);
+        int size();
+    }
+
+    private final int sectors, leds;
+    private final int[] data;
+
+    public PolarFrame(int sectors, int leds){
+        this.sectors = sectors;
+        this.leds = leds;
+        this.data = new int[sectors * leds];
+    }
+
+    public PolarFrame(PolarFrame other){
+        this(other.sectors, other.leds);
+        System.arraycopy(other.data, 0, data, 0, data.length);
+    }
+
+    public int sectors(){
+        return sectors;
+    }
+
+    public int leds(){
+        return leds;
+    }
+
+    public int[] data(){
+        return data;
+    }
+
+    public int index(int sector, int led){
+        return sector * leds + led;
+    }
+
+    public int get(int sector, int led){
+        return data[sector * leds + led];
+    }
+
+    public void set(int sector, int led, int value){
+        data[sector * leds + led] = value;
+    }
+
+    public void clear(){
+        Arrays.fill(data, 0);
+    }
+
+    public void copyFrom(PolarFrame other){
+        System.arraycopy(other.data, 0, data, 0, data.length);
+    }
+
+    // Sector-major view, indexed by LED
+    public View sector(int sector){
+        return new Strided(sector * leds, 1, leds);
+    }
+
+    // Ring-major view, indexed by sector
+    public View ring(int led){
+        return new Strided(led, leds, sectors);
+    }
+
+    public HashMap<Integer, ArrayList<Integer>> toMap(){
+        HashMap<Integer, ArrayList<Integer>> map = new HashMap<>();
+        for(int i = 0; i < sectors; i++){
+            ArrayList<Integer> sector = new ArrayList<>(leds);
+            for(int j = 0; j < leds; j++){
+                sector.add(get(i, j));
+            }
+            map.put(i, sector);
+        }
+        return map;
+    }
+
+    public static PolarFrame FromMap(HashMap<Integer, ArrayList<Integer>> samples, int sectors){
+        int leds = 0;
+        for(int i = 0; i < sectors; i++){
+            if(samples.containsKey(i)) leds = Math.max(leds, samples.get(i).size());
+        }
+
+        PolarFrame frame = new PolarFrame(sectors, leds);
+        for(int i = 0; i < sectors; i++){
+            ArrayList<Integer> sector = samples.get(i);
+            if(sector == null) continue;
+            for(int j = 0; j < sector.size(); j++){
+                frame.set(i, j, sector.get(j));
+            }
+        }
+        return frame;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof PolarFrame other)) return false;
+        return sectors == other.sectors && leds == other.leds && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode(){
+        return Arrays.hashCode(data);
+    }
+
+    private final class Strided implements View {
+        private final int offset, stride, length;
+
+        private Strided(int offset, int stride, int length){
+            this.offset = offset;
+            this.stride = stride;
+            this.length = length;
+        }
+
+        public int get(int i){
+            return data[offset + i * stride];
+        }
+
+        public void set(int i, int value){
+            data[offset + i * stride] = value;
+        }
+
+        public int index(int i){
+            return offset + i * stride;
+        }
+
+        public int size(){
+            return length;
+        }
+    }
+}
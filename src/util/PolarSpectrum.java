@@ -0,0 +1,43 @@
+package util;
+
+import java.util.Arrays;
+
+public class PolarSpectrum {
+
+    public static final int RED = 0, GREEN = 1, BLUE = 2;
+
+    private final int sectors, leds;
+
+    // [channel][sector * leds + led], same layout as PolarFrame
+    private final double[][] real, imag;
+
+    public PolarSpectrum(int sectors, int leds){
+        this.sectors = sectors;
+        this.leds = leds;
+        this.real = new double[3][sectors * leds];
+        this.imag = new double[3][sectors * leds];
+    }
+
+    public int sectors(){
+        return sectors;
+    }
+
+    public int leds(){
+        return leds;
+    }
+
+    public double[] real(int channel){
+        return real[channel];
+    }
+
+    public double[] imag(int channel){
+        return imag[channel];
+    }
+
+    public void clear(){
+        for(int c = 0; c < 3; c++){
+            Arrays.fill(real[c], 0);
+            Arrays.fill(imag[c], 0);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ Table-based rANS coding of sector runs against frame-wide models, an alternative to the palette
+ Huffman table that is not held to a whole bit per symbol. Both a run's colour and its length are
+ coded, each with its own static model: colours with 2^scaleBits slots, lengths with
+ 2^LENGTH_SCALE_BITS. A sector dominated by one colour costs a fraction of a bit per run for it.
+
+   table             flags 1 byte (CanonicalHuffman's SIGNED_SYMBOLS / WIDE_SYMBOLS), scaleBits 1 byte,
+                     n 4 bytes, then n symbols sorted by value, each 3 (or 4) bytes big endian and
+                     its frequency as a varint; m 1 byte, then m lengths, each 1 byte and its frequency
+                     as a varint. Frequencies sum to their model's slot count.
+   each sector       runs 1 byte r, the final encoder state 4 bytes big endian, then the renormalisation
+                     bytes, r colours interleaved with r lengths in decode order
+
+ The state is 32 bits kept in [STATE_LOWER, 256 * STATE_LOWER) with byte-wise renormalisation, so a
+ sector's stream is exactly as long as its decoder reads and sectors can be read back to back.
+ */
+public class RansCoder implements EntropyCoder {
+
+    public static final int STATE_LOWER = 1 << 23;
+    public static final int MIN_SCALE_BITS = 12, MAX_SCALE_BITS = 18;
+    public static final int LENGTH_SCALE_BITS = 12;
+
+    private final int leds;
+
+    // Runs of the sector being coded
+    private final int[] runColor, runLength;
+    private int runs;
+
+    // Colour model over symbols sorted by value; length model indexed by run length
+    private int[] symbols, colorFrequency, colorStart;
+    private final int[] lengthFrequency, lengthStart;
+    private int scaleBits;
+
+    // The sector's stream is written backwards from the end
+    private final byte[] scratch;
+    private int scratchStart;
+
+    public RansCoder(int leds){
+        if (leds > 255) throw new IllegalArgumentException("Run lengths are stored in bytes, at most 255 LEDs, got " + leds);
+
+        this.leds = leds;
+        this.runColor = new int[leds];
+        this.runLength = new int[leds];
+        this.lengthFrequency = new int[leds + 1];
+        this.lengthStart = new int[leds + 1];
+
+        // Each symbol renormalises at most its scale in bits, rounded up to whole bytes
+        this.scratch = new byte[4 + leds * 2 * ((MAX_SCALE_BITS + 7) / 8)];
+    }
+
+    @Override
+    public int coding(){
+        return RieFile.RANS_CODING;
+    }
+
+    @Override
+    public ByteBuffer buildTable(PolarFrame frame){
+        int[] data = frame.data();
+
+        // Run colours of every sector, and the run length counts
+        int[] colors = new int[data.length];
+        int total = 0;
+        Arrays.fill(lengthFrequency, 0);
+        for (int i = 0; i < frame.sectors(); i++) {
+            collectRuns(data, frame.index(i, 0));
+            for (int r = 0; r < runs; r++) {
+                colors[total++] = runColor[r];
+                lengthFrequency[runLength[r]]++;
+            }
+        }
+
+        Arrays.sort(colors, 0, total);
+        int n = 0;
+        int[] counts = new int[total];
+        for (int i = 0; i < total; i++) {
+            if (n == 0 || colors[n - 1] != colors[i]) colors[n++] = colors[i];
+            counts[n - 1]++;
+        }
+
+        if (n > 1 << (MAX_SCALE_BITS - 1)) {
+            throw new IllegalArgumentException("Too many colours for rANS coding: " + n);
+        }
+
+        symbols = Arrays.copyOf(colors, n);
+        scaleBits = Math.min(MAX_SCALE_BITS, Math.max(MIN_SCALE_BITS, 32 - Integer.numberOfLeadingZeros(n) + 4));
+        colorFrequency = Normalize(Arrays.copyOf(counts, n), total, 1 << scaleBits);
+        colorStart = Starts(colorFrequency);
+
+        int[] normalized = Normalize(lengthFrequency.clone(), total, 1 << LENGTH_SCALE_BITS);
+        System.arraycopy(normalized, 0, lengthFrequency, 0, normalized.length);
+        System.arraycopy(Starts(lengthFrequency), 0, lengthStart, 0, lengthStart.length);
+
+        boolean unsigned = true, signed = true;
+        for (int symbol : symbols) {
+            unsigned &= symbol == (symbol & 0xFFFFFF);
+            signed &= symbol == (symbol << 8 >> 8);
+        }
+        int flags = unsigned ? 0 : signed ? CanonicalHuffman.SIGNED_SYMBOLS : CanonicalHuffman.WIDE_SYMBOLS;
+        int symbolBytes = flags == CanonicalHuffman.WIDE_SYMBOLS ? 4 : 3;
+
+        int lengths = 0;
+        for (int frequency : lengthFrequency) if (frequency > 0) lengths++;
+
+        ByteBuffer buffer = ByteBuffer.allocate(7 + n * (symbolBytes + 3) + lengths * 3);
+        buffer.put((byte) flags);
+        buffer.put((byte) scaleBits);
+        buffer.putInt(n);
+        for (int s = 0; s < n; s++) {
+            if (symbolBytes == 4) buffer.put((byte) (symbols[s] >>> 24));
+            buffer.put((byte) (symbols[s] >>> 16));
+            buffer.put((byte) (symbols[s] >>> 8));
+            buffer.put((byte) symbols[s]);
+            PutVarint(buffer, colorFrequency[s]);
+        }
+        buffer.put((byte) lengths);
+        for (int length = 1; length <= leds; length++) {
+            if (lengthFrequency[length] == 0) continue;
+            buffer.put((byte) length);
+            PutVarint(buffer, lengthFrequency[length]);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public int maxIndexedSize(){
+        return 1 + scratch.length;
+    }
+
+    @Override
+    public void encodeIndexed(int[] data, int offset, ByteBuffer out){
+        collectRuns(data, offset);
+        encodeRuns();
+        out.put((byte) runs);
+        out.put(scratch, scratchStart, scratch.length - scratchStart);
+    }
+
+    private void collectRuns(int[] data, int offset){
+        runs = 0;
+        for (int k = 0; k < leds; k++) {
+            int color = data[offset + k];
+            if (runs == 0 || color != runColor[runs - 1]) {
+                runColor[runs] = color;
+                runLength[runs] = 0;
+                runs++;
+            }
+            runLength[runs - 1]++;
+        }
+    }
+
+    // Codes the runs in reverse, so the decoder reads them forwards
+    private void encodeRuns(){
+        int position = scratch.length;
+        long state = STATE_LOWER;
+
+        for (int r = runs - 1; r >= 0; r--) {
+            int length = runLength[r];
+            int s = Arrays.binarySearch(symbols, runColor[r]);
+            if (s < 0 || lengthFrequency[length] == 0) throw new IllegalArgumentException("Sector is not covered by the table");
+
+            for (int pass = 0; pass < 2; pass++) {
+                int frequency = pass == 0 ? lengthFrequency[length] : colorFrequency[s];
+                int start = pass == 0 ? lengthStart[length] : colorStart[s];
+                int scale = pass == 0 ? LENGTH_SCALE_BITS : scaleBits;
+
+                long limit = ((long) (STATE_LOWER >>> scale) << 8) * frequency;
+                while (state >= limit) {
+                    scratch[--position] = (byte) state;
+                    state >>>= 8;
+                }
+                state = ((state / frequency) << scale) + state % frequency + start;
+            }
+        }
+
+        for (int i = 0; i < 4; i++) {
+            scratch[--position] = (byte) state;
+            state >>>= 8;
+        }
+        scratchStart = position;
+    }
+
+    // Scales counts to sum to slots, keeping every present symbol at least 1
+    static int[] Normalize(int[] counts, int total, int slots){
+        int sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            counts[i] = (int) Math.max(1, (long) counts[i] * slots / total);
+            sum += counts[i];
+        }
+
+        // Rounding is settled on the largest frequencies, which feel it least
+        while (sum != slots) {
+            int largest = 0;
+            for (int i = 1; i < counts.length; i++) {
+                if (counts[i] > counts[largest]) largest = i;
+            }
+
+            int step = sum < slots ? slots - sum : -Math.min(sum - slots, counts[largest] - 1);
+            if (step == 0) throw new IllegalArgumentException("Too many symbols for " + slots + " slots");
+            counts[largest] += step;
+            sum += step;
+        }
+        return counts;
+    }
+
+    private static int[] Starts(int[] frequencies){
+        int[] starts = new int[frequencies.length];
+        for (int i = 1; i < frequencies.length; i++) {
+            starts[i] = starts[i - 1] + frequencies[i - 1];
+        }
+        return starts;
+    }
+
+    private static void PutVarint(ByteBuffer buffer, int value){
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int GetVarint(ByteBuffer buffer){
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            if (shift > 28) throw new IllegalArgumentException("Corrupt rANS table");
+        }
+    }
+
+    // Slot tables for both models: a slot's symbol, frequency and start are one lookup away
+    public static class Table implements EntropyCoder.Table {
+        private final int scaleBits;
+        private final int[] symbols, colorSlots, colorFrequency, colorStart;
+        private final int[] lengthSlots, lengthFrequency, lengthStart;
+
+        private Table(int scaleBits, int[] symbols, int[] colorFrequency, int[] lengths, int[] lengthFrequency){
+            this.scaleBits = scaleBits;
+            this.symbols = symbols;
+            this.colorFrequency = colorFrequency;
+            this.colorStart = Starts(colorFrequency);
+            this.colorSlots = Slots(colorFrequency, colorStart, 1 << scaleBits);
+
+            this.lengthFrequency = new int[256];
+            for (int i = 0; i < lengths.length; i++) this.lengthFrequency[lengths[i]] = lengthFrequency[i];
+            this.lengthStart = Starts(this.lengthFrequency);
+            this.lengthSlots = Slots(this.lengthFrequency, lengthStart, 1 << LENGTH_SCALE_BITS);
+        }
+
+        public static Table Read(ByteBuffer data){
+            int flags = data.get();
+            int scaleBits = data.get() & 0xFF;
+            if (scaleBits < MIN_SCALE_BITS || scaleBits > MAX_SCALE_BITS) throw new IllegalArgumentException("Corrupt rANS table");
+
+            int n = data.getInt();
+            boolean wide = (flags & CanonicalHuffman.WIDE_SYMBOLS) != 0, signed = (flags & CanonicalHuffman.SIGNED_SYMBOLS) != 0;
+            int[] symbols = new int[n], colorFrequency = new int[n];
+            for (int s = 0; s < n; s++) {
+                int symbol = wide ? data.get() & 0xFF : 0;
+                symbol = (symbol << 8) | (data.get() & 0xFF);
+                symbol = (symbol << 8) | (data.get() & 0xFF);
+                symbol = (symbol << 8) | (data.get() & 0xFF);
+                symbols[s] = signed ? symbol << 8 >> 8 : symbol;
+                colorFrequency[s] = GetVarint(data);
+            }
+
+            int m = data.get() & 0xFF;
+            int[] lengths = new int[m], lengthFrequency = new int[m];
+            for (int i = 0; i < m; i++) {
+                lengths[i] = data.get() & 0xFF;
+                lengthFrequency[i] = GetVarint(data);
+            }
+
+            return new Table(scaleBits, symbols, colorFrequency, lengths, lengthFrequency);
+        }
+
+        private static int[] Slots(int[] frequencies, int[] starts, int slots){
+            int[] table = new int[slots];
+            int filled = 0;
+            for (int s = 0; s < frequencies.length; s++) {
+                if (starts[s] + frequencies[s] > slots) throw new IllegalArgumentException("Corrupt rANS table");
+                Arrays.fill(table, starts[s], starts[s] + frequencies[s], s);
+                filled += frequencies[s];
+            }
+            if (filled != slots) throw new IllegalArgumentException("Corrupt rANS table");
+            return table;
+        }
+
+        @Override
+        public int size(){
+            return symbols.length;
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int[] out, int offset, int leds){
+            int runs = data.get() & 0xFF;
+            int state = data.getInt();
+            int colorMask = (1 << scaleBits) - 1, lengthMask = (1 << LENGTH_SCALE_BITS) - 1;
+
+            int led = 0;
+            for (int r = 0; r < runs; r++) {
+                int slot = state & colorMask;
+                int s = colorSlots[slot];
+                state = colorFrequency[s] * (state >>> scaleBits) + slot - colorStart[s];
+                while (state < STATE_LOWER) state = (state << 8) | (data.get() & 0xFF);
+
+                slot = state & lengthMask;
+                int length = lengthSlots[slot];
+                state = lengthFrequency[length] * (state >>> LENGTH_SCALE_BITS) + slot - lengthStart[length];
+                while (state < STATE_LOWER) state = (state << 8) | (data.get() & 0xFF);
+
+                if (led + length > leds) throw new IllegalArgumentException("Run overflows sector of " + leds + " LEDs");
+                Arrays.fill(out, offset + led, offset + led + length, symbols[s]);
+                led += length;
+            }
+        }
+    }
+}
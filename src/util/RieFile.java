@@ -0,0 +1,210 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ Versioned .rie container: a header, an index of sector offsets and the encoded sectors in sector order.
+
+   magic       4 bytes, "RIEF"
+   version     2 bytes
+   coding      1 byte, how the sectors were encoded (TREE_CODING, CANONICAL_CODING, PALETTE_CODING or RANS_CODING)
+   flags       1 byte, reserved
+   sectors     2 bytes
+   leds        2 bytes
+   offsets     (sectors + 1) * 4 bytes from the start of the file; sector s is [offsets[s], offsets[s + 1])
+   table       frame-wide code table for PALETTE_CODING or RANS_CODING (version 2), up to offsets[0]
+
+ Reading maps the file and decodes sectors only when asked for, so a single sector or ring costs a
+ seek rather than a pass over the file. TREE_CODING can still be written but not read back; Open and
+ Wrap reject it. All values are big endian.
+ */
+public class RieFile {
+
+    public static final int MAGIC = 0x52494546;
+    public static final int VERSION = 2;
+
+    public static final int TREE_CODING = 0;
+    public static final int CANONICAL_CODING = 1;
+    public static final int PALETTE_CODING = 2;
+    public static final int RANS_CODING = 3;
+
+    private static final int HEADER_SIZE = 12;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final ByteBuffer data;
+    private final int version, coding, sectors, leds;
+    private final int[] offsets;
+
+    // Read on the first palette or rANS decode
+    private EntropyCoder.Table table;
+
+    private RieFile(ByteBuffer data){
+        this.data = data;
+
+        if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a .rie container");
+        }
+
+        this.version = data.getShort(4) & 0xFFFF;
+        if (version > VERSION) throw new IllegalArgumentException("Unsupported .rie version " + version);
+
+        this.coding = data.get(6) & 0xFF;
+        if (coding == TREE_CODING) throw new IllegalArgumentException("Tree-coded .rie files cannot be read; re-render with canonical, palette or rANS coding");
+        if (coding > RANS_CODING) throw new IllegalArgumentException("Unknown .rie coding " + coding);
+        this.sectors = data.getShort(8) & 0xFFFF;
+        this.leds = data.getShort(10) & 0xFFFF;
+
+        this.offsets = new int[sectors + 1];
+        for (int i = 0; i <= sectors; i++) {
+            offsets[i] = data.getInt(HEADER_SIZE + i * 4);
+            if (offsets[i] > data.limit() || (i > 0 && offsets[i] < offsets[i - 1])) {
+                throw new IllegalArgumentException("Corrupt .rie index at sector " + i);
+            }
+        }
+    }
+
+    // Maps the file read-only; the header and index are read now, sectors on demand
+    public static RieFile Open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new RieFile(mapped);
+        }
+    }
+
+    public static RieFile Wrap(ByteBuffer data){
+        return new RieFile(data.slice());
+    }
+
+    // Writes encoded sectors with a header and index in one gathering write, published by an atomic rename;
+    // sectors missing from encoded are stored empty
+    public static void Write(Path path, HashMap<Integer, ByteBuffer> encoded, int sectors, int leds, int coding) throws IOException {
+        Write(path, null, encoded, sectors, leds, coding);
+    }
+
+    // As above, with the frame-wide table PALETTE_CODING or RANS_CODING sectors are coded against
+    public static void Write(Path path, ByteBuffer table, HashMap<Integer, ByteBuffer> encoded, int sectors, int leds, int coding) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[sectors + 1];
+        buffers[0] = Header(table, encoded, sectors, leds, coding);
+        for (int i = 0; i < sectors; i++) {
+            ByteBuffer sector = encoded.get(i);
+            buffers[i + 1] = sector != null ? sector : EMPTY;
+        }
+
+        EncodingUtils.WriteAtomically(path, buffers);
+    }
+
+    // The bytes Write would produce, for containers that embed whole frames
+    public static ByteBuffer Encode(ByteBuffer table, HashMap<Integer, ByteBuffer> encoded, int sectors, int leds, int coding){
+        ByteBuffer header = Header(table, encoded, sectors, leds, coding);
+        ByteBuffer out = ByteBuffer.allocate(header.getInt(HEADER_SIZE + sectors * 4));
+        out.put(header);
+        for (int i = 0; i < sectors; i++) {
+            ByteBuffer sector = encoded.get(i);
+            if (sector != null) out.put(sector.duplicate());
+        }
+        return out.flip();
+    }
+
+    // Header, index and table, flipped for reading
+    private static ByteBuffer Header(ByteBuffer table, HashMap<Integer, ByteBuffer> encoded, int sectors, int leds, int coding){
+        int tableSize = table != null ? table.remaining() : 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + (sectors + 1) * 4 + tableSize);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.put((byte) coding);
+        header.put((byte) 0);
+        header.putShort((short) sectors);
+        header.putShort((short) leds);
+
+        int offset = header.capacity();
+        for (int i = 0; i < sectors; i++) {
+            header.putInt(offset);
+            ByteBuffer sector = encoded.get(i);
+            if (sector != null) offset += sector.remaining();
+        }
+        header.putInt(offset);
+        if (table != null) header.put(table.duplicate());
+        return header.flip();
+    }
+
+    // Codings whose sectors are coded against a frame-wide table in the header
+    public static boolean HasTable(int coding){
+        return coding == PALETTE_CODING || coding == RANS_CODING;
+    }
+
+    public int version(){
+        return version;
+    }
+
+    public int coding(){
+        return coding;
+    }
+
+    public int sectors(){
+        return sectors;
+    }
+
+    public int leds(){
+        return leds;
+    }
+
+    public boolean hasSector(int sector){
+        return offsets[sector + 1] > offsets[sector];
+    }
+
+    // The encoded bytes of one sector, without copying
+    public ByteBuffer sector(int sector){
+        return data.slice(offsets[sector], offsets[sector + 1] - offsets[sector]);
+    }
+
+    // Palette and rANS files only: the frame-wide code table
+    public EntropyCoder.Table table(){
+        if (!HasTable(coding)) throw new IllegalStateException("Only palette and rANS coded files have a frame table");
+
+        if (table == null) {
+            int start = HEADER_SIZE + (sectors + 1) * 4;
+            ByteBuffer bytes = data.slice(start, offsets[0] - start);
+            table = coding == RANS_CODING ? RansCoder.Table.Read(bytes) : CanonicalHuffman.Table.Read(bytes);
+        }
+        return table;
+    }
+
+    // Decodes one sector into out[offset, offset + leds); empty sectors decode to zeros
+    public void decodeSector(int sector, int[] out, int offset){
+        if (!hasSector(sector)) {
+            Arrays.fill(out, offset, offset + leds, 0);
+            return;
+        }
+
+        if (HasTable(coding)) table().decode(sector(sector), out, offset, leds);
+        else CanonicalHuffman.Decode(sector(sector), out, offset, leds);
+    }
+
+    // One LED across every sector; each sector is decoded into scratch and only that LED kept
+    public void decodeRing(int led, int[] out){
+        int[] scratch = new int[leds];
+        for (int i = 0; i < sectors; i++) {
+            decodeSector(i, scratch, 0);
+            out[i] = scratch[led];
+        }
+    }
+
+    public void decode(PolarFrame frame){
+        for (int i = 0; i < sectors; i++) {
+            decodeSector(i, frame.data(), frame.index(i, 0));
+        }
+    }
+
+    public PolarFrame decode(){
+        PolarFrame frame = new PolarFrame(sectors, leds);
+        decode(frame);
+        return frame;
+    }
+}
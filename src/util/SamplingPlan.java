@@ -0,0 +1,310 @@
+package util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class SamplingPlan {
+
+    public static final int INNER_RADIUS = 10;
+
+    public static final double GAMMA = 4.5;
+    public static final int RED_SCALE = 255, GREEN_SCALE = 176, BLUE_SCALE = 240;
+
+    // Smallest block of rings handed to one fork-join task
+    public static final int RINGS_PER_TASK = 4;
+
+    public enum Filter {
+        // Direct sum over every pixel of the box
+        BOX,
+        // Four lookups per channel into integral images of the frame
+        SUMMED_AREA
+    }
+
+    private record Key(int sectors, int leds, List<Integer> radii, int width, int height) {}
+
+    private static final ConcurrentHashMap<Key, SamplingPlan> plans = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, int[][]> gammaTables = new ConcurrentHashMap<>();
+
+    private final int sectors, leds, width, height;
+    private final int[] radii;
+
+    // Sampling box of every LED clamped to the panel, inclusive, indexed like PolarFrame (sector * leds + led)
+    private final int[] boxX0, boxY0, boxX1, boxY1;
+
+    // Gamma-corrected channel values by box sum, one table per box area
+    private final int[][][] gamma;
+
+    private SamplingPlan(int sectors, int leds, int[] radii, int width, int height){
+        this.sectors = sectors;
+        this.leds = leds;
+        this.radii = radii;
+        this.width = width;
+        this.height = height;
+
+        this.boxX0 = new int[sectors * leds];
+        this.boxY0 = new int[sectors * leds];
+        this.boxX1 = new int[sectors * leds];
+        this.boxY1 = new int[sectors * leds];
+        this.gamma = new int[sectors * leds][][];
+
+        double midX = width / 2, midY = height / 2, outer = Math.min(width, height) / 2;
+
+        // Same angle accumulation as the panel drawing so LED positions match pixel for pixel
+        int sector = 0;
+        for (double j = 0; j < 2 * Math.PI && sector < sectors; j += 2 * Math.PI / sectors) {
+            double angle = j + Math.PI / sectors;
+
+            double unitX = Math.cos(angle), unitY = Math.sin(angle);
+            double startX = (unitX * INNER_RADIUS + midX), startY = (unitY * INNER_RADIUS + midY),
+                    endX = (unitX * outer + midX), endY = (unitY * outer + midY);
+
+            double trueUnitX = (endX - startX), trueUnitY = (endY - startY);
+
+            for (int i = 0; i < leds; i++) {
+                double iterX = startX + (double) i / leds * trueUnitX, iterY = startY + (double) i / leds * trueUnitY;
+
+                int index = sector * leds + i, radius = radii[i];
+                boxX0[index] = Math.max(0, (int) iterX - radius);
+                boxY0[index] = Math.max(0, (int) iterY - radius);
+                boxX1[index] = Math.min(width - 1, (int) iterX + radius);
+                boxY1[index] = Math.min(height - 1, (int) iterY + radius);
+
+                gamma[index] = GammaTable((boxX1[index] - boxX0[index] + 1) * (boxY1[index] - boxY0[index] + 1));
+            }
+            sector++;
+        }
+    }
+
+    public static SamplingPlan Of(int sectors, int leds, int radius, int width, int height){
+        int[] radii = new int[leds];
+        Arrays.fill(radii, radius);
+        return Of(sectors, leds, radii, width, height);
+    }
+
+    // Plan with its own sampling radius per ring (LED index)
+    public static SamplingPlan Of(int sectors, int leds, int[] radii, int width, int height){
+        List<Integer> key = new ArrayList<>(leds);
+        for (int radius : radii) key.add(radius);
+        return plans.computeIfAbsent(new Key(sectors, leds, key, width, height),
+                (k) -> new SamplingPlan(sectors, leds, radii.clone(), width, height));
+    }
+
+    // Radius per ring so each box spans about the arc between neighbouring sectors, within [minRadius, maxRadius]
+    public static int[] ArcRadii(int sectors, int leds, int width, int height, int minRadius, int maxRadius){
+        int[] radii = new int[leds];
+        double outer = Math.min(width, height) / 2;
+        for (int i = 0; i < leds; i++) {
+            double distance = INNER_RADIUS + (double) i / leds * (outer - INNER_RADIUS);
+            double arc = distance * 2 * Math.PI / sectors;
+            radii[i] = Math.max(minRadius, Math.min(maxRadius, (int) Math.round(arc / 2)));
+        }
+        return radii;
+    }
+
+    // Channel lookup from a box sum straight to the corrected LED value
+    private static int[][] GammaTable(int area){
+        return gammaTables.computeIfAbsent(area, (a) -> {
+            int[][] table = new int[3][255 * a + 1];
+            double norm = 255 * a;
+            for (int sum = 0; sum < table[0].length; sum++) {
+                double corrected = Math.pow(sum / norm, GAMMA);
+                table[0][sum] = (int) (corrected * RED_SCALE);
+                table[1][sum] = (int) (corrected * GREEN_SCALE);
+                table[2][sum] = (int) (corrected * BLUE_SCALE);
+            }
+            return table;
+        });
+    }
+
+    public int sectors(){
+        return sectors;
+    }
+
+    public int leds(){
+        return leds;
+    }
+
+    public int radius(int led){
+        return radii[led];
+    }
+
+    public void sample(BufferedImage image, PolarFrame out, Filter filter){
+        if (filter == Filter.SUMMED_AREA) sample(new SummedAreaTable(image), out.data(), leds, 0, leds);
+        else sample(image, out.data(), leds, 0, leds);
+    }
+
+    // Splits the rings across the pool; each task fills its own block and blocks are copied back in ring order
+    public void sample(BufferedImage image, PolarFrame out, Filter filter, ForkJoinPool pool){
+        if (pool == null || pool.getParallelism() <= 1) {
+            sample(image, out, filter);
+            return;
+        }
+
+        SummedAreaTable table = filter == Filter.SUMMED_AREA ? new SummedAreaTable(image) : null;
+        pool.invoke(new RingTask(image, table, out, 0, leds));
+    }
+
+    @SuppressWarnings("serial")
+    private class RingTask extends RecursiveAction {
+        private final BufferedImage image;
+        private final SummedAreaTable table;
+        private final PolarFrame out;
+        private final int ledStart, ledEnd;
+
+        private RingTask(BufferedImage image, SummedAreaTable table, PolarFrame out, int ledStart, int ledEnd){
+            this.image = image;
+            this.table = table;
+            this.out = out;
+            this.ledStart = ledStart;
+            this.ledEnd = ledEnd;
+        }
+
+        @Override
+        protected void compute(){
+            if (ledEnd - ledStart <= RINGS_PER_TASK) {
+                int rings = ledEnd - ledStart;
+                int[] block = new int[sectors * rings];
+
+                if (table != null) sample(table, block, rings, ledStart, ledEnd);
+                else sample(image, block, rings, ledStart, ledEnd);
+
+                int[] frame = out.data();
+                for (int sector = 0; sector < sectors; sector++) {
+                    System.arraycopy(block, sector * rings, frame, out.index(sector, ledStart), rings);
+                }
+                return;
+            }
+
+            int mid = (ledStart + ledEnd) >>> 1;
+            invokeAll(new RingTask(image, table, out, ledStart, mid), new RingTask(image, table, out, mid, ledEnd));
+        }
+    }
+
+    // Box-filters the LEDs in [ledStart, ledEnd) of every sector into sector-major rows of rowLength values starting at ring ledStart
+    private void sample(BufferedImage image, int[] frame, int rowLength, int ledStart, int ledEnd){
+        Raster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+
+        if (buffer instanceof DataBufferByte bytes && model instanceof ComponentSampleModel component
+                && model.getNumBands() >= 3 && buffer.getNumBanks() == 1
+                && image.getType() != BufferedImage.TYPE_CUSTOM) {
+            sampleBytes(bytes.getData(), component, raster, frame, rowLength, ledStart, ledEnd);
+        } else if (buffer instanceof DataBufferInt ints && model instanceof SinglePixelPackedSampleModel packed
+                && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+            sampleInts(ints.getData(), packed, raster, frame, rowLength, ledStart, ledEnd);
+        } else {
+            sampleGeneric(image, frame, rowLength, ledStart, ledEnd);
+        }
+    }
+
+    // Same averages as the box filter, O(1) per LED whatever the radius
+    private void sample(SummedAreaTable table, int[] frame, int rowLength, int ledStart, int ledEnd){
+        int[] red = table.red(), green = table.green(), blue = table.blue();
+
+        for (int sector = 0; sector < sectors; sector++) {
+            for (int i = ledStart; i < ledEnd; i++) {
+                int index = sector * leds + i;
+
+                int topLeft = table.corner(boxX0[index], boxY0[index]), topRight = table.corner(boxX1[index] + 1, boxY0[index]),
+                        bottomLeft = table.corner(boxX0[index], boxY1[index] + 1), bottomRight = table.corner(boxX1[index] + 1, boxY1[index] + 1);
+
+                int[][] corrected = gamma[index];
+                frame[sector * rowLength + i - ledStart] = TransformationUtils.CombineRGB(
+                        corrected[0][SummedAreaTable.Sum(red, topLeft, topRight, bottomLeft, bottomRight)],
+                        corrected[1][SummedAreaTable.Sum(green, topLeft, topRight, bottomLeft, bottomRight)],
+                        corrected[2][SummedAreaTable.Sum(blue, topLeft, topRight, bottomLeft, bottomRight)]);
+            }
+        }
+    }
+
+    private void sampleBytes(byte[] data, ComponentSampleModel model, Raster raster, int[] frame, int rowLength, int ledStart, int ledEnd){
+        int scanline = model.getScanlineStride(), pixel = model.getPixelStride();
+        int[] bands = model.getBandOffsets();
+        int base = raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX() * pixel;
+
+        // Colour model band order: red, green, blue
+        int red = bands[0], green = bands[1], blue = bands[2];
+
+        for (int sector = 0; sector < sectors; sector++) {
+            for (int i = ledStart; i < ledEnd; i++) {
+                int index = sector * leds + i;
+
+                int redSum = 0, greenSum = 0, blueSum = 0;
+
+                for (int y = boxY0[index]; y <= boxY1[index]; y++) {
+                    int p = base + y * scanline + boxX0[index] * pixel, end = p + (boxX1[index] - boxX0[index]) * pixel;
+                    for (; p <= end; p += pixel) {
+                        redSum += data[p + red] & 0xFF;
+                        greenSum += data[p + green] & 0xFF;
+                        blueSum += data[p + blue] & 0xFF;
+                    }
+                }
+
+                int[][] corrected = gamma[index];
+                frame[sector * rowLength + i - ledStart] = TransformationUtils.CombineRGB(corrected[0][redSum], corrected[1][greenSum], corrected[2][blueSum]);
+            }
+        }
+    }
+
+    private void sampleInts(int[] data, SinglePixelPackedSampleModel model, Raster raster, int[] frame, int rowLength, int ledStart, int ledEnd){
+        int scanline = model.getScanlineStride();
+        int base = raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX();
+
+        for (int sector = 0; sector < sectors; sector++) {
+            for (int i = ledStart; i < ledEnd; i++) {
+                int index = sector * leds + i;
+
+                int redSum = 0, greenSum = 0, blueSum = 0;
+
+                for (int y = boxY0[index]; y <= boxY1[index]; y++) {
+                    int p = base + y * scanline + boxX0[index], end = base + y * scanline + boxX1[index];
+                    for (; p <= end; p++) {
+                        int rgb = data[p];
+                        redSum += (rgb >> 16) & 0xFF;
+                        greenSum += (rgb >> 8) & 0xFF;
+                        blueSum += rgb & 0xFF;
+                    }
+                }
+
+                int[][] corrected = gamma[index];
+                frame[sector * rowLength + i - ledStart] = TransformationUtils.CombineRGB(corrected[0][redSum], corrected[1][greenSum], corrected[2][blueSum]);
+            }
+        }
+    }
+
+    private void sampleGeneric(BufferedImage image, int[] frame, int rowLength, int ledStart, int ledEnd){
+        for (int sector = 0; sector < sectors; sector++) {
+            for (int i = ledStart; i < ledEnd; i++) {
+                int index = sector * leds + i;
+
+                int redSum = 0, greenSum = 0, blueSum = 0;
+
+                for (int y = boxY0[index]; y <= boxY1[index]; y++)
+                    for (int x = boxX0[index]; x <= boxX1[index]; x++) {
+                        int rgb = image.getRGB(x, y);
+                        redSum += (rgb >> 16) & 0xFF;
+                        greenSum += (rgb >> 8) & 0xFF;
+                        blueSum += rgb & 0xFF;
+                    }
+
+                int[][] corrected = gamma[index];
+                frame[sector * rowLength + i - ledStart] = TransformationUtils.CombineRGB(corrected[0][redSum], corrected[1][greenSum], corrected[2][blueSum]);
+            }
+        }
+    }
+}
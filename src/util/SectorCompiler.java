@@ -0,0 +1,164 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Chooses how each sector is painted on a blade, by the estimated wire cost of the requests.
+
+   RUNS      one led or leds request per run of equal colour
+   LAYERED   fewest overlapping fills, painted in order so later ones cover earlier ones; a sector
+             alternating between a background and short features becomes one fill plus the features
+   COPY      copy-ar from an earlier sector on the same blade, then the runs that still differ
+
+ LAYERED is the minimal number of fills over the sector's runs (the strange printer recurrence,
+ cubic in the runs, so sectors with more than MAX_LAYERED_RUNS runs are not layered). COPY needs a
+ firmware that understands copy-ar and is only considered when enabled.
+
+ A request is estimated at REQUEST_BYTES of framing plus ARGUMENT_BYTES per argument, the client id
+ included; ties go to fewer requests, then to the simpler representation.
+ */
+public class SectorCompiler {
+
+    public enum Representation { RUNS, LAYERED, COPY }
+
+    public static final int REQUEST_BYTES = 4, ARGUMENT_BYTES = 4;
+    public static final int MAX_LAYERED_RUNS = 48;
+
+    // Bytes of a request with the given number of arguments besides the client id
+    public static int RequestBytes(int arguments){
+        return REQUEST_BYTES + (arguments + 1) * ARGUMENT_BYTES;
+    }
+
+    // ops holds (start, end, colour) fills in paint order, end exclusive; source is the copied sector or -1
+    public record Program(Representation representation, int source, int[] ops) {
+        public int fills(){
+            return ops.length / 3;
+        }
+
+        public int commands(){
+            return fills() + (source >= 0 ? 1 : 0);
+        }
+
+        public int bytes(){
+            int bytes = source >= 0 ? RequestBytes(1) : 0;
+            for (int i = 0; i < ops.length; i += 3) bytes += RequestBytes(ops[i + 1] - ops[i] > 1 ? 3 : 2);
+            return bytes;
+        }
+    }
+
+    private final int leds;
+    private final boolean copy;
+
+    public SectorCompiler(int leds, boolean copy){
+        this.leds = leds;
+        this.copy = copy;
+    }
+
+    public boolean copy(){
+        return copy;
+    }
+
+    public int leds(){
+        return leds;
+    }
+
+    // Cheapest program for one sector; copies may be null, and its sources must be on the same blade
+    public Program compile(PolarFrame frame, int sector, SectorMatcher copies){
+        int[] data = frame.data();
+        int offset = frame.index(sector, 0);
+
+        int[] runs = Runs(data, offset, leds);
+        Program best = new Program(Representation.RUNS, -1, runs);
+
+        if (runs.length / 3 > 2 && runs.length / 3 <= MAX_LAYERED_RUNS) {
+            best = Cheaper(best, new Program(Representation.LAYERED, -1, Layered(runs)));
+        }
+
+        if (copy && copies != null && copies.source(sector) >= 0) {
+            int source = copies.source(sector);
+            int[] patches = AnimationEncoder.Runs(data, offset, data, frame.index(source, 0), leds);
+            best = Cheaper(best, new Program(Representation.COPY, source, patches));
+        }
+
+        return best;
+    }
+
+    // The plain runs, the baseline the other representations are measured against
+    public Program runs(PolarFrame frame, int sector){
+        return new Program(Representation.RUNS, -1, Runs(frame.data(), frame.index(sector, 0), leds));
+    }
+
+    private static Program Cheaper(Program best, Program candidate){
+        if (candidate.bytes() != best.bytes()) return candidate.bytes() < best.bytes() ? candidate : best;
+        return candidate.commands() < best.commands() ? candidate : best;
+    }
+
+    static int[] Runs(int[] data, int offset, int leds){
+        return AnimationEncoder.Runs(data, offset, null, 0, leds);
+    }
+
+    // Fewest fills that leave every run its colour, given the runs as (start, end, colour)
+    static int[] Layered(int[] runs){
+        int n = runs.length / 3;
+        int[] colors = new int[n];
+        for (int i = 0; i < n; i++) colors[i] = runs[i * 3 + 2];
+
+        // fills[i][j]: fewest fills for runs i..j; joined[i][j]: the later run i's fill extends to, or -1
+        int[][] fills = new int[n][n], joined = new int[n][n];
+        for (int i = n - 1; i >= 0; i--) {
+            fills[i][i] = 1;
+            joined[i][i] = -1;
+            for (int j = i + 1; j < n; j++) {
+                fills[i][j] = fills[i + 1][j] + 1;
+                joined[i][j] = -1;
+
+                // Run i rides on the fill of a later run of its colour; the runs between are painted over it
+                for (int k = i + 2; k <= j; k++) {
+                    if (colors[k] != colors[i]) continue;
+
+                    int cost = fills[i + 1][k - 1] + fills[k][j];
+                    if (cost < fills[i][j]) {
+                        fills[i][j] = cost;
+                        joined[i][j] = k;
+                    }
+                }
+            }
+        }
+
+        List<int[]> order = new ArrayList<>();
+        Fill(0, n - 1, joined, colors, order);
+
+        int[] ops = new int[order.size() * 3];
+        for (int i = 0; i < order.size(); i++) {
+            int[] fill = order.get(i);
+            ops[i * 3] = runs[fill[0] * 3];
+            ops[i * 3 + 1] = runs[fill[1] * 3 + 1];
+            ops[i * 3 + 2] = fill[2];
+        }
+        return ops;
+    }
+
+    // Appends the fills for runs i..j as (first run, last run, colour), in paint order
+    private static void Fill(int i, int j, int[][] joined, int[] colors, List<int[]> order){
+        if (i > j) return;
+
+        int k = joined[i][j];
+        if (k < 0) {
+            order.add(new int[]{ i, i, colors[i] });
+            Fill(i + 1, j, joined, colors, order);
+            return;
+        }
+
+        // The last fill covering run k is the one that leaves its colour; stretch it back over run i
+        int start = order.size();
+        Fill(k, j, joined, colors, order);
+        for (int f = order.size() - 1; f >= start; f--) {
+            if (order.get(f)[0] == k) {
+                order.get(f)[0] = i;
+                break;
+            }
+        }
+        Fill(i + 1, k - 1, joined, colors, order);
+    }
+}
@@ -0,0 +1,206 @@
+package util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/*
+ Finds, for each converted sector of a frame, the earlier converted sector it differs from in the
+ fewest LEDs, and which LEDs those are.
+
+ Every sector is summarised by a hash per block of BLOCK_SIZE LEDs. Two sectors differ in at least
+ as many LEDs as they have differing block hashes, since equal blocks always hash equal, so a
+ candidate whose bound already reaches the best difference so far is skipped without touching its
+ LEDs, and the LEDs of the rest are only counted up to that best. Identical earlier sectors are
+ found through a table of whole-sector hashes and end the search at once.
+
+ Only sectors a multiple of stride back are candidates, so with one blade per residue a sector is
+ matched within its own blade. window limits how far back a sector looks (0 for every earlier
+ sector) and maxCandidates how many of the candidates with the lowest bounds get an exact count
+ (0 for all of them). With both at 0 the match is the minimal one, ties going to the nearest sector;
+ otherwise it is the best within those limits.
+
+ Differences are kept as one bitset row of words per sector; their colours are the frame's own.
+ */
+public class SectorMatcher {
+
+    public static final int BLOCK_SIZE = 9;
+
+    private final int sectors, leds, blocks, words;
+    private final int window, maxCandidates, stride;
+
+    private final long[] blockHashes, sectorHashes;
+    private final int[] sources, counts;
+    private final long[] masks;
+
+    private PolarFrame frame;
+
+    public SectorMatcher(int sectors, int leds, int window, int maxCandidates){
+        this(sectors, leds, window, maxCandidates, 1);
+    }
+
+    public SectorMatcher(int sectors, int leds, int window, int maxCandidates, int stride){
+        if (stride < 1) throw new IllegalArgumentException("Stride must be positive, got " + stride);
+        if (window < 0 || maxCandidates < 0) {
+            throw new IllegalArgumentException("Window and candidate limits cannot be negative, got " + window + " and " + maxCandidates);
+        }
+
+        this.sectors = sectors;
+        this.leds = leds;
+        this.blocks = (leds + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.words = (leds + 63) >>> 6;
+        this.window = window;
+        this.maxCandidates = maxCandidates;
+        this.stride = stride;
+
+        this.blockHashes = new long[sectors * blocks];
+        this.sectorHashes = new long[sectors];
+        this.sources = new int[sectors];
+        this.counts = new int[sectors];
+        this.masks = new long[sectors * words];
+    }
+
+    public int window(){
+        return window;
+    }
+
+    public int maxCandidates(){
+        return maxCandidates;
+    }
+
+    public int stride(){
+        return stride;
+    }
+
+    public void match(PolarFrame frame, BitSet converted){
+        if (frame.sectors() != sectors || frame.leds() != leds) {
+            throw new IllegalArgumentException("Frame is " + frame.sectors() + "x" + frame.leds() + ", expected " + sectors + "x" + leds);
+        }
+
+        this.frame = frame;
+        int[] data = frame.data();
+
+        Arrays.fill(sources, -1);
+        Arrays.fill(counts, 0);
+        Arrays.fill(masks, 0);
+
+        for (int i = converted.nextSetBit(0); i >= 0; i = converted.nextSetBit(i + 1)) {
+            hash(data, i);
+        }
+
+        // Latest converted sector with each whole-sector hash and residue, filled as the scan moves forward
+        HashMap<Long, Integer> latest = new HashMap<>();
+        long[] candidates = new long[maxCandidates > 0 ? (window > 0 ? window : sectors) : 0];
+
+        for (int i = converted.nextSetBit(0); i >= 0; i = converted.nextSetBit(i + 1)) {
+            int first = window > 0 ? Math.max(0, i - window) : 0;
+
+            Integer same = latest.put(sectorHashes[i] + i % stride, i);
+            if (same != null && same >= first && (i - same) % stride == 0 && Arrays.equals(data, i * leds, (i + 1) * leds, data, same * leds, (same + 1) * leds)) {
+                sources[i] = same;
+                continue;
+            }
+
+            int source = -1, best = leds + 1;
+
+            if (maxCandidates > 0) {
+                // Lowest bounds first, nearest first among equal bounds
+                int n = 0;
+                for (int j = converted.previousSetBit(i - 1); j >= first; j = converted.previousSetBit(j - 1)) {
+                    if ((i - j) % stride != 0) continue;
+                    candidates[n++] = (long) bound(i, j) << 32 | (i - j);
+                }
+                Arrays.sort(candidates, 0, n);
+
+                for (int c = 0; c < Math.min(n, maxCandidates) && best > 0; c++) {
+                    if ((int) (candidates[c] >>> 32) >= best) break;
+
+                    int j = i - (int) candidates[c];
+                    int differences = differences(data, i, j, best);
+                    if (differences < best) {
+                        best = differences;
+                        source = j;
+                    }
+                }
+            } else {
+                for (int j = converted.previousSetBit(i - 1); j >= first && best > 0; j = converted.previousSetBit(j - 1)) {
+                    if ((i - j) % stride != 0 || bound(i, j) >= best) continue;
+
+                    int differences = differences(data, i, j, best);
+                    if (differences < best) {
+                        best = differences;
+                        source = j;
+                    }
+                }
+            }
+
+            if (source < 0) continue;
+
+            sources[i] = source;
+            for (int k = 0; k < leds; k++) {
+                if (data[i * leds + k] != data[source * leds + k]) {
+                    masks[i * words + (k >>> 6)] |= 1L << k;
+                    counts[i]++;
+                }
+            }
+        }
+    }
+
+    private void hash(int[] data, int sector){
+        long whole = 0;
+        for (int b = 0; b < blocks; b++) {
+            long h = 0x9E3779B97F4A7C15L;
+            for (int k = b * BLOCK_SIZE; k < Math.min(leds, (b + 1) * BLOCK_SIZE); k++) {
+                h = (h ^ data[sector * leds + k]) * 0xBF58476D1CE4E5B9L;
+                h ^= h >>> 31;
+            }
+            blockHashes[sector * blocks + b] = h;
+            whole = (whole ^ h) * 0x94D049BB133111EBL + b;
+        }
+        sectorHashes[sector] = whole;
+    }
+
+    // A lower bound on the LEDs sectors a and b differ in
+    private int bound(int a, int b){
+        int bound = 0;
+        for (int k = 0; k < blocks; k++) {
+            if (blockHashes[a * blocks + k] != blockHashes[b * blocks + k]) bound++;
+        }
+        return bound;
+    }
+
+    // LEDs sectors a and b differ in, counted no further than limit
+    private int differences(int[] data, int a, int b, int limit){
+        int differences = 0;
+        for (int k = 0; k < leds && differences < limit; k++) {
+            if (data[a * leds + k] != data[b * leds + k]) differences++;
+        }
+        return differences;
+    }
+
+    // Sector the match copies from, or -1 when it has none
+    public int source(int sector){
+        return sources[sector];
+    }
+
+    public int differenceCount(int sector){
+        return counts[sector];
+    }
+
+    public boolean differs(int sector, int led){
+        return (masks[sector * words + (led >>> 6)] & 1L << led) != 0;
+    }
+
+    // Writes the differing LEDs of sector and their colours, returning how many there are
+    public int differences(int sector, int[] leds, int[] colors){
+        int n = 0;
+        for (int w = 0; w < words; w++) {
+            for (long bits = masks[sector * words + w]; bits != 0; bits &= bits - 1) {
+                int led = (w << 6) + Long.numberOfTrailingZeros(bits);
+                leds[n] = led;
+                colors[n++] = frame.get(sector, led);
+            }
+        }
+        return n;
+    }
+}
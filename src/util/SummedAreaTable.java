@@ -0,0 +1,104 @@
+package util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+
+public class SummedAreaTable {
+
+    private final int width, height, stride;
+
+    // Inclusive prefix sums per channel, (width + 1) x (height + 1) with a zero first row and column
+    private final int[] red, green, blue;
+
+    public SummedAreaTable(BufferedImage image){
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.stride = width + 1;
+
+        if ((long) 255 * width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Image too large for a summed-area table: " + width + "x" + height);
+
+        this.red = new int[stride * (height + 1)];
+        this.green = new int[stride * (height + 1)];
+        this.blue = new int[stride * (height + 1)];
+
+        Raster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            if (buffer instanceof DataBufferByte bytes && model instanceof ComponentSampleModel component
+                    && model.getNumBands() >= 3 && buffer.getNumBanks() == 1
+                    && image.getType() != BufferedImage.TYPE_CUSTOM) {
+                readRow(bytes.getData(), component, raster, y, row);
+            } else {
+                image.getRGB(0, y, width, 1, row, 0, width);
+            }
+
+            int redRow = 0, greenRow = 0, blueRow = 0;
+            int above = y * stride, current = (y + 1) * stride;
+
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                redRow += (rgb >> 16) & 0xFF;
+                greenRow += (rgb >> 8) & 0xFF;
+                blueRow += rgb & 0xFF;
+
+                red[current + x + 1] = red[above + x + 1] + redRow;
+                green[current + x + 1] = green[above + x + 1] + greenRow;
+                blue[current + x + 1] = blue[above + x + 1] + blueRow;
+            }
+        }
+    }
+
+    private void readRow(byte[] data, ComponentSampleModel model, Raster raster, int y, int[] row){
+        int scanline = model.getScanlineStride(), pixel = model.getPixelStride();
+        int[] bands = model.getBandOffsets();
+        int p = raster.getDataBuffer().getOffset()
+                + (y - raster.getSampleModelTranslateY()) * scanline - raster.getSampleModelTranslateX() * pixel;
+
+        for (int x = 0; x < width; x++, p += pixel) {
+            row[x] = ((data[p + bands[0]] & 0xFF) << 16) | ((data[p + bands[1]] & 0xFF) << 8) | (data[p + bands[2]] & 0xFF);
+        }
+    }
+
+    public int width(){
+        return width;
+    }
+
+    public int height(){
+        return height;
+    }
+
+    public int stride(){
+        return stride;
+    }
+
+    public int[] red(){
+        return red;
+    }
+
+    public int[] green(){
+        return green;
+    }
+
+    public int[] blue(){
+        return blue;
+    }
+
+    // Index of the prefix sum covering pixels [0, x) x [0, y)
+    public int corner(int x, int y){
+        return y * stride + x;
+    }
+
+    // Box sum from the corners corner(x0, y0), corner(x1 + 1, y0), corner(x0, y1 + 1), corner(x1 + 1, y1 + 1)
+    public static int Sum(int[] table, int topLeft, int topRight, int bottomLeft, int bottomRight){
+        return table[bottomRight] - table[topRight] - table[bottomLeft] + table[topLeft];
+    }
+}
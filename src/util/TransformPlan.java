@@ -0,0 +1,122 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TransformPlan {
+
+    public enum Kind { DCT, DFT }
+
+    // Above this block size a dense basis costs more than the FFT path in FourierUtils
+    public static final int DENSE_LIMIT = 64;
+
+    private record Key(int size, Kind kind, boolean inverse) {}
+
+    private static final ConcurrentHashMap<Key, TransformPlan> plans = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final Kind kind;
+    private final boolean inverse;
+
+    // Row-major size x size basis; null when the plan defers to FourierUtils
+    private final double[] cos, sin;
+
+    private TransformPlan(int size, Kind kind, boolean inverse){
+        this.size = size;
+        this.kind = kind;
+        this.inverse = inverse;
+
+        if (size > DENSE_LIMIT) {
+            this.cos = null;
+            this.sin = null;
+            return;
+        }
+
+        this.cos = new double[size * size];
+        this.sin = kind == Kind.DFT ? new double[size * size] : null;
+
+        // Same argument expressions as the direct sums so the products match them exactly
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (kind == Kind.DFT) {
+                    cos[i * size + j] = Math.cos(2 * Math.PI * i * j / size);
+                    sin[i * size + j] = Math.sin(2 * Math.PI * i * j / size);
+                } else if (!inverse) {
+                    cos[i * size + j] = Math.cos(Math.PI * i * (j + 0.5) / size);
+                } else {
+                    cos[i * size + j] = Math.cos(Math.PI * (i + 0.5) * j / size);
+                }
+            }
+        }
+    }
+
+    public static TransformPlan Of(int size, Kind kind, boolean inverse){
+        return plans.computeIfAbsent(new Key(size, kind, inverse), (key) -> new TransformPlan(size, kind, inverse));
+    }
+
+    public static TransformPlan Of(int size, boolean useDCT, boolean inverse){
+        return Of(size, useDCT ? Kind.DCT : Kind.DFT, inverse);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    // Forward block: samples to real/imag coefficients, DCT coefficients truncated like FourierUtils.DCT
+    public void forward(double[] samples, double[] real, double[] imag){
+        if (cos == null) {
+            if (kind == Kind.DCT) FourierUtils.DCT(samples, real, imag);
+            else FourierUtils.DFT(samples, real, imag);
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            int row = i * size;
+            double next = 0, nextSin = 0;
+
+            if (kind == Kind.DFT) {
+                for (int j = 0; j < size; j++) {
+                    next += samples[j] * cos[row + j];
+                    nextSin += samples[j] * sin[row + j];
+                }
+                real[i] = next;
+                imag[i] = nextSin;
+            } else {
+                for (int j = 0; j < size; j++) {
+                    next += samples[j] * cos[row + j];
+                }
+                real[i] = FourierUtils.truncate(next);
+                imag[i] = 0;
+            }
+        }
+    }
+
+    // Inverse block keeping coefficients in [filterStart, filterEnd]; DCT coefficient 0 is always kept
+    public void inverse(double[] real, double[] imag, double[] transformed, int filterStart, int filterEnd){
+        if (cos == null) {
+            if (kind == Kind.DCT) FourierUtils.iDCT(real, transformed, filterStart, filterEnd, true);
+            else FourierUtils.iDFT(real, imag, transformed, filterStart, filterEnd, true);
+            return;
+        }
+
+        int first = kind == Kind.DCT ? Math.max(1, filterStart) : Math.max(0, filterStart);
+        int last = Math.min(size - 1, filterEnd);
+
+        for (int i = 0; i < size; i++) {
+            int row = i * size;
+
+            if (kind == Kind.DFT) {
+                double next = 0;
+                for (int j = first; j <= last; j++) {
+                    next += real[j] * cos[row + j] + imag[j] * sin[row + j];
+                }
+                transformed[i] = next / size;
+            } else {
+                double next = 0.5 * real[0];
+                for (int j = first; j <= last; j++) {
+                    next += real[j] * cos[row + j];
+                }
+                transformed[i] = next * (2.0 / size);
+            }
+        }
+    }
+}
@@ -21,6 +21,13 @@ public class TransformationUtils {
         return value;
     }
 
+    public static int CombineRGB(int red, int green, int blue){
+        int value = red;
+        value = ((value << 8) + green);
+        value = ((value << 8) + blue);
+        return value;
+    }
+
 
     public static void RadialDerivative(HashMap<Integer, ArrayList<Integer>> samples,
                                         HashMap<Integer, ArrayList<Integer>> transform,
@@ -391,4 +398,204 @@ public class TransformationUtils {
 
     }
 
+    // Packed overloads split, run the planar pass and pack, so they agree with it; integrating a packed
+    // derivative gives the frame back in the low 24 bits
+    public static void RadialDerivative(PolarFrame samples, PolarFrame transform, int sectors){
+        PlanarFrame planes = new PlanarFrame(transform.sectors(), transform.leds());
+        RadialDerivative(PlanarFrame.Split(samples), planes, sectors);
+        planes.pack(transform);
+    }
+
+    public static void RadialIntegration(PolarFrame samples, PolarFrame transform, int sectors){
+        PlanarFrame planes = new PlanarFrame(transform.sectors(), transform.leds());
+        RadialIntegration(PlanarFrame.Split(samples), planes, sectors);
+        planes.pack(transform);
+    }
+
+    public static void AngularDerivative(PolarFrame samples, PolarFrame transform, int sectors){
+        PlanarFrame planes = new PlanarFrame(transform.sectors(), transform.leds());
+        AngularDerivative(PlanarFrame.Split(samples), planes, sectors);
+        planes.pack(transform);
+    }
+
+    public static void AngularIntegration(PolarFrame samples, PolarFrame transform, int sectors){
+        PlanarFrame planes = new PlanarFrame(transform.sectors(), transform.leds());
+        AngularIntegration(PlanarFrame.Split(samples), planes, sectors);
+        planes.pack(transform);
+    }
+
+    public static void RadialFourierTransform(PolarFrame samples, PolarFrame imaginaryTransform, PolarFrame realTransform,
+                                              PolarSpectrum transform, int sectors, int ftSamples, boolean useDCT){
+        RadialFourierTransform(PlanarFrame.Split(samples), imaginaryTransform, realTransform, transform, sectors, ftSamples, useDCT);
+    }
+
+    public static void AngularFourierTransform(PolarFrame samples, PolarFrame imaginaryTransform, PolarFrame realTransform,
+                                               PolarSpectrum transform, int radius, int ftSamples, boolean useDCT){
+        AngularFourierTransform(PlanarFrame.Split(samples), imaginaryTransform, realTransform, transform, radius, ftSamples, useDCT);
+    }
+
+    public static void InverseRadialFourierTransform(PolarSpectrum transform, PolarFrame invTransform,
+                                                     int sectors, int ftSamples, int filterStart, int filterEnd, boolean useDCT){
+        PlanarFrame planes = new PlanarFrame(invTransform.sectors(), invTransform.leds());
+        InverseRadialFourierTransform(transform, planes, sectors, ftSamples, filterStart, filterEnd, useDCT);
+        planes.pack(invTransform);
+    }
+
+    public static void InverseAngularFourierTransform(PolarSpectrum transform, PolarFrame invTransform,
+                                                      int radius, int ftSamples, int filterStart, int filterEnd, boolean useDCT){
+        PlanarFrame planes = new PlanarFrame(invTransform.sectors(), invTransform.leds());
+        InverseAngularFourierTransform(transform, planes, radius, ftSamples, filterStart, filterEnd, useDCT);
+        planes.pack(invTransform);
+    }
+
+    // Planar passes: each channel is a signed int plane, nothing is packed until the caller asks for it
+
+    public static void RadialDerivative(PlanarFrame samples, PlanarFrame transform, int sectors){
+        int leds = samples.leds();
+        for(int c = 0; c < 3; c++){
+            int[] in = samples.plane(c), out = transform.plane(c);
+            for(int i = 0; i < sectors; i++){
+                int row = i * leds;
+                out[row] = in[row];
+                for(int j = row + 1; j < row + leds; j++){
+                    out[j] = in[j] - in[j - 1];
+                }
+            }
+        }
+    }
+
+    public static void RadialIntegration(PlanarFrame samples, PlanarFrame transform, int sectors){
+        int leds = samples.leds();
+        for(int c = 0; c < 3; c++){
+            int[] in = samples.plane(c), out = transform.plane(c);
+            for(int i = 0; i < sectors; i++){
+                int row = i * leds;
+                out[row] = in[row];
+                for(int j = row + 1; j < row + leds; j++){
+                    out[j] = out[j - 1] + in[j];
+                }
+            }
+        }
+    }
+
+    public static void AngularDerivative(PlanarFrame samples, PlanarFrame transform, int sectors){
+        int leds = samples.leds(), end = sectors * leds;
+        for(int c = 0; c < 3; c++){
+            int[] in = samples.plane(c), out = transform.plane(c);
+            System.arraycopy(in, 0, out, 0, leds);
+            for(int k = leds; k < end; k++){
+                out[k] = in[k] - in[k - leds];
+            }
+        }
+    }
+
+    public static void AngularIntegration(PlanarFrame samples, PlanarFrame transform, int sectors){
+        int leds = samples.leds(), end = sectors * leds;
+        for(int c = 0; c < 3; c++){
+            int[] in = samples.plane(c), out = transform.plane(c);
+            System.arraycopy(in, 0, out, 0, leds);
+            for(int k = leds; k < end; k++){
+                out[k] = out[k - leds] + in[k];
+            }
+        }
+    }
+
+    public static void RadialFourierTransform(PlanarFrame samples, PolarFrame imaginaryTransform, PolarFrame realTransform,
+                                              PolarSpectrum transform, int sectors, int ftSamples, boolean useDCT){
+        TransformPlan plan = TransformPlan.Of(ftSamples, useDCT, false);
+        int leds = samples.leds();
+        for(int i = 0; i < sectors; i++){
+            ForwardTransform(plan, samples, i * leds, 1, leds, imaginaryTransform, realTransform, transform);
+        }
+    }
+
+    public static void AngularFourierTransform(PlanarFrame samples, PolarFrame imaginaryTransform, PolarFrame realTransform,
+                                               PolarSpectrum transform, int radius, int ftSamples, boolean useDCT){
+        TransformPlan plan = TransformPlan.Of(ftSamples, useDCT, false);
+        int leds = samples.leds();
+        for(int i = 0; i < radius; i++){
+            ForwardTransform(plan, samples, i, leds, samples.sectors(), imaginaryTransform, realTransform, transform);
+        }
+    }
+
+    public static void InverseRadialFourierTransform(PolarSpectrum transform, PlanarFrame invTransform,
+                                                     int sectors, int ftSamples, int filterStart, int filterEnd, boolean useDCT){
+        TransformPlan plan = TransformPlan.Of(ftSamples, useDCT, true);
+        int leds = invTransform.leds();
+        for(int i = 0; i < sectors; i++){
+            InverseTransform(plan, transform, invTransform, i * leds, 1, leds, filterStart, filterEnd);
+        }
+    }
+
+    public static void InverseAngularFourierTransform(PolarSpectrum transform, PlanarFrame invTransform,
+                                                      int radius, int ftSamples, int filterStart, int filterEnd, boolean useDCT){
+        TransformPlan plan = TransformPlan.Of(ftSamples, useDCT, true);
+        int leds = invTransform.leds();
+        for(int i = 0; i < radius; i++){
+            InverseTransform(plan, transform, invTransform, i, leds, invTransform.sectors(), filterStart, filterEnd);
+        }
+    }
+
+    // Block transform of the cells base, base + stride, ... (one sector or one ring) in every plane
+    private static void ForwardTransform(TransformPlan plan, PlanarFrame samples, int base, int stride, int length,
+                                         PolarFrame imaginary, PolarFrame real, PolarSpectrum transform){
+        int ftSamples = plan.size();
+        double[] block = new double[ftSamples], blockReal = new double[ftSamples], blockImag = new double[ftSamples];
+        int blocks = length / ftSamples;
+
+        for(int c = 0; c < 3; c++){
+            int[] plane = samples.plane(c);
+            double[] outReal = transform.real(c), outImag = transform.imag(c);
+
+            for(int b = 0; b < blocks; b++){
+                int start = base + b * ftSamples * stride;
+                for(int k = 0, index = start; k < ftSamples; k++, index += stride){
+                    block[k] = (double) plane[index] - 128.0;
+                }
+
+                plan.forward(block, blockReal, blockImag);
+
+                for(int k = 0, index = start; k < ftSamples; k++, index += stride){
+                    outReal[index] = blockReal[k];
+                    outImag[index] = blockImag[k];
+                }
+            }
+        }
+
+        double[] redR = transform.real(PolarSpectrum.RED), greenR = transform.real(PolarSpectrum.GREEN), blueR = transform.real(PolarSpectrum.BLUE);
+        double[] redI = transform.imag(PolarSpectrum.RED), greenI = transform.imag(PolarSpectrum.GREEN), blueI = transform.imag(PolarSpectrum.BLUE);
+        int[] realData = real.data(), imaginaryData = imaginary.data();
+
+        for(int k = 0, index = base; k < blocks * ftSamples; k++, index += stride){
+            realData[index] = CombineRGB((int) redR[index], (int) greenR[index], (int) blueR[index]);
+            imaginaryData[index] = CombineRGB((int) redI[index], (int) greenI[index], (int) blueI[index]);
+        }
+    }
+
+    private static void InverseTransform(TransformPlan plan, PolarSpectrum transform, PlanarFrame invTransform,
+                                         int base, int stride, int length, int filterStart, int filterEnd){
+        int ftSamples = plan.size();
+        double[] blockReal = new double[ftSamples], blockImag = new double[ftSamples], block = new double[ftSamples];
+        int blocks = length / ftSamples;
+
+        for(int c = 0; c < 3; c++){
+            double[] inReal = transform.real(c), inImag = transform.imag(c);
+            int[] plane = invTransform.plane(c);
+
+            for(int b = 0; b < blocks; b++){
+                int start = base + b * ftSamples * stride;
+                for(int k = 0, index = start; k < ftSamples; k++, index += stride){
+                    blockReal[k] = inReal[index];
+                    blockImag[k] = inImag[index];
+                }
+
+                plan.inverse(blockReal, blockImag, block, filterStart, filterEnd);
+
+                for(int k = 0, index = start; k < ftSamples; k++, index += stride){
+                    plane[index] = (int) (block[k] + 128);
+                }
+            }
+        }
+    }
+
 }